@@ -0,0 +1,113 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javafx.scene.paint.Color;
+import model.Asteroid;
+import model.Body;
+import model.BodySystem;
+import model.Checkpoint;
+import model.GravityField;
+import model.LeapfrogIntegrator;
+import model.Planet;
+import model.WorkerThread;
+
+/**
+ * The innermost kernels: the force between two bodies, and a single worker updating a range of bodies
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ForceKernelBenchmark {
+
+	@State(Scope.Thread)
+	public static class Pair {
+		Body a, b;
+
+		@Setup
+		public void setup(){
+			a = new Asteroid(BodySystem.earthDistance*2.5, 1e20, Color.WHITE);
+			b = new Planet(BodySystem.earthDistance*5.2, BodySystem.earthmass*317.83, Color.YELLOW);
+		}
+	}
+
+	@Benchmark
+	public double addForce(Pair p){
+		p.a.addForce(p.b);
+		return p.a.fx;
+	}
+
+	@State(Scope.Benchmark)
+	public static class Worker {
+		@Param({"10000", "100000"})
+		int bodies;
+
+		@Param({"false", "true"})
+		boolean collisions;
+
+		@Param({"false", "true"})
+		boolean vectorized;
+
+		BodySystem sys;
+		GravityField field;
+		WorkerThread worker;
+		Checkpoint start; // The bodies every iteration starts from
+
+		@Setup(Level.Trial)
+		public void setup(){
+			sys = new BodySystem(1);
+			sys.addRandomBodies(bodies);
+			sys.setCollisions(collisions);
+			start = new Checkpoint();
+			sys.writeCheckpoint(start);
+			field = new GravityField();
+			worker = new WorkerThread(sys.getStore(), field, 1);
+			worker.setVectorized(vectorized);
+		}
+
+		// Start every iteration from the same bodies, so the bodies removed and moved away in the earlier ones
+		// don't change the work measured
+		@Setup(Level.Iteration)
+		public void reset(){
+			sys.restoreCheckpoint(start);
+			field.begin(sys.getGravityBodies());
+			field.interpolate(sys.getDeltaTime(), new LeapfrogIntegrator(), 0);
+			worker.prepareStep(sys.getDeltaTime(), new LeapfrogIntegrator(), 0, BodySystem.ETA, collisions);
+			worker.resetRemoved();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown(){
+			sys.shutdown();
+		}
+	}
+
+	/**
+	 * One worker advancing all bodies one update, without substeps
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void workerStep(Worker w, Blackhole bh){
+		w.worker.run(0, w.sys.getStore().size(), 0);
+		w.worker.applyCollisions();
+		bh.consume(w.worker.getRemoved());
+	}
+
+}
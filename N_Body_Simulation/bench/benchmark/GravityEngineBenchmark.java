@@ -0,0 +1,130 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import model.BarnesHutGravity;
+import model.Body;
+import model.BodyStore;
+import model.BodySystem;
+import model.FastMultipoleGravity;
+import model.GravityEngine;
+
+/**
+ * The mutual gravity of all non gravity bodies on a single thread: an exact direct sum against the fast multipole
+ * method and Barnes-Hut, to find the number of bodies where the O(N) methods start to pay off.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class GravityEngineBenchmark {
+
+	@Param({"500", "1000", "2000", "5000", "10000", "50000"})
+	int bodies;
+
+	@Param({"direct", "fmm", "bh"})
+	String engine;
+
+	BodySystem sys;
+	BodyStore store;
+	GravityEngine gravity;
+
+	@Setup(Level.Trial)
+	public void setup(){
+		sys = new BodySystem(1);
+		sys.addRandomBodies(bodies);
+		store = sys.getStore();
+		switch(engine){
+		case "fmm":
+			gravity = new FastMultipoleGravity();
+			break;
+		case "bh":
+			gravity = new BarnesHutGravity();
+			break;
+		default:
+			gravity = new DirectGravity();
+			break;
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		sys.shutdown();
+	}
+
+	@Benchmark
+	public double forces(){
+		gravity.prepare(store);
+		for(int i = 0; i < store.size(); i++){
+			gravity.addForce(store, i);
+		}
+		return store.fx(0);
+	}
+
+	/**
+	 * Every pair of bodies, with the same softening as the other engines
+	 */
+	static class DirectGravity implements GravityEngine {
+
+		private static final double EPS = 3E4;
+
+		private double[] px = new double[0], py = new double[0], pm = new double[0];
+		private int n;
+
+		@Override
+		public void prepare(BodyStore store) {
+			n = store.size();
+			if(px.length < n){
+				px = new double[n];
+				py = new double[n];
+				pm = new double[n];
+			}
+			for(int i = 0; i < n; i++){
+				px[i] = store.rx(i);
+				py[i] = store.ry(i);
+				pm[i] = store.mass(i);
+			}
+		}
+
+		@Override
+		public void addForce(BodyStore store, int i) {
+			double ax = 0.0, ay = 0.0;
+			double x = px[i], y = py[i];
+			for(int b = 0; b < n; b++){
+				double bx = px[b] - x;
+				double by = py[b] - y;
+				double d2 = bx*bx + by*by;
+				if(d2 == 0.0){
+					continue;
+				}
+				double d = Math.sqrt(d2);
+				double a = (BodySystem.G * pm[b]) / (d2 + EPS*EPS);
+				ax += a * bx / d;
+				ay += a * by / d;
+			}
+			double m = store.mass(i);
+			store.setForce(i, store.fx(i) + m*ax, store.fy(i) + m*ay);
+		}
+
+		@Override
+		public void addForce(Body b) {
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import model.BodySystem;
+
+/**
+ * Sweep of the number of worker threads for a full update, to find the best BodySystem.DEFAULT_THREADCOUNT.
+ * A thread count of 0 means one thread per available core.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class ThreadCountBenchmark {
+
+	@Param({"1", "2", "4", "8", "16", "32", "0"})
+	int threads;
+
+	@Param({"1000", "100000"})
+	int bodies;
+
+	BodySystem sys;
+
+	@Setup(Level.Trial)
+	public void setupTrial(){
+		sys = new BodySystem(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+	}
+
+	@Setup(Level.Iteration)
+	public void setupIteration(){
+		sys.resetBodies();
+		sys.addRandomBodies(bodies);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		sys.shutdown();
+	}
+
+	@Benchmark
+	public void updatePositions(){
+		sys.updatePositions();
+	}
+
+}
@@ -0,0 +1,63 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import model.BodySystem;
+
+/**
+ * A full BodySystem.updatePositions() at different body counts, with and without collisions.
+ * The bodies are recreated for every iteration so collisions don't empty the system during the run.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class UpdateBenchmark {
+
+	@Param({"10000", "100000", "700000"})
+	int bodies;
+
+	@Param({"false", "true"})
+	boolean collisions;
+
+	BodySystem sys;
+
+	@Setup(Level.Trial)
+	public void setupTrial(){
+		sys = new BodySystem();
+		sys.setCollisions(collisions);
+	}
+
+	@Setup(Level.Iteration)
+	public void setupIteration(){
+		sys.resetBodies();
+		sys.addRandomBodies(bodies);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		sys.shutdown();
+	}
+
+	@Benchmark
+	public void updatePositions(){
+		sys.updatePositions();
+	}
+
+}
@@ -2,7 +2,6 @@ package application;
 
 import java.io.File;
 import java.net.URL;
-import java.util.ArrayList;
 
 import files.FileLoader;
 import javafx.animation.AnimationTimer;
@@ -22,17 +21,23 @@ import javafx.scene.image.Image;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.media.MediaPlayer;
 import javafx.scene.paint.Color;
+import model.BarnesHutGravity;
 import model.BlackHole;
 import model.Body;
+import model.BodyStore;
 import model.BodySystem;
 import model.Collision;
-import model.Comet;
-import model.Star;
+import model.SimulationRunner;
+import model.Snapshot;
+import model.SnapshotBuffer;
+import model.StepMetrics;
 import sounds.MediaPlayerSupport;
 import sounds.SoundLoader;
 
 public class Controller {
 
+	private static final int SUBSTEPS = 4; // Updates of the model per frame drawn
+
 	@FXML
 	private Canvas canvas; // Draw on the canvas
 
@@ -63,8 +68,13 @@ public class Controller {
     @FXML
     private CheckBox enableCollisions; // Use real Asteroids
 
+    @FXML
+    private CheckBox mutualGravity; // All bodies attract each other (Barnes-Hut)
+
 	private GraphicsContext gc;
 	private BodySystem sys;
+	private SimulationRunner runner; // Advances the model on its own thread
+	private SnapshotBuffer snapshots; // The latest states of the model published by the runner
 	private SoundLoader soundLoader;
 	private AnimationTimer at;
 
@@ -74,11 +84,27 @@ public class Controller {
 	private double translateX, translateY; 
 	private double scale; // "Zoom" level of the canvas
 	private boolean realAsteroids, realComets, collisions;
+	private boolean densityMode = true; // Show the bodies of a pixel or less as a density image
+	private DensityImage density = new DensityImage();
+	private int[] paletteArgb = new int[0];
+	private boolean pixelMode; // Draw the asteroids into a pixel buffer instead of with the GraphicsContext
+	private PixelRenderer pixelRenderer = new PixelRenderer(Runtime.getRuntime().availableProcessors());
+	private boolean metricsMode; // Show the time taken by the phases of the updates and the drawing
+	private String[] metricsLines = new String[0];
+	private long metricsTime;    // When the metrics lines were last refreshed
+
+	private static final long METRICS_REFRESH = 500_000_000L; // Nanoseconds between refreshes of the metrics lines
 
 	@FXML
 	void initialize(){	
 		this.gc = canvas.getGraphicsContext2D();
 		this.sys = new BodySystem();
+		sys.getMetrics().register();
+		this.runner = new SimulationRunner(sys);
+		runner.setStepsPerSecond(60*SUBSTEPS);
+		runner.setSnapshotsPerSecond(60); // Same pace as the screen refresh
+		this.snapshots = new SnapshotBuffer();
+		runner.setSnapshotBuffer(snapshots);
 		scale = 1e18;
 
 		// Translate to center of canvas
@@ -100,11 +126,12 @@ public class Controller {
 		speed.setMax(BodySystem.maxDeltaTime);
 		speed.setMin(BodySystem.minDeltaTime);
 		speed.setValue(sys.getDeltaTime());
+		setSpeed(speed.getValue());
 		speed.valueProperty().addListener(new ChangeListener<Number>() {
 			@Override
 			public void changed(ObservableValue<? extends Number> observable,
 					Number oldValue, Number newValue) {
-				sys.setDeltaTime((double) newValue);
+				setSpeed((double) newValue);
 			}
 		});
 
@@ -155,6 +182,7 @@ public class Controller {
 		this.showComets.setDisable(true);
 		this.useRealAsteroids.setDisable(true);
 		this.enableCollisions.setDisable(true);
+		this.mutualGravity.setDisable(true);
 
 		if(at==null){ // If no simulation has been started then:		
 			// Read input_field and create bodies
@@ -166,7 +194,7 @@ public class Controller {
 			}
 			sys.resetBodies();
 			if(realAsteroids){
-				sys.addKnownBodies(n);				
+				sys.streamKnownBodies(n); // Starts right away, the asteroids are added while the catalog loads
 			} else {
 				sys.addRandomBodies(n);				
 			}
@@ -182,90 +210,151 @@ public class Controller {
 		speed.setDisable(false);
 
 		// Begin the simulation
+		runner.start();
 		drawSimulation();
 		System.err.println("Simulation started.");
 	}
 
 
 	/**
-	 * Draw the model on the canvas in a JavaFX Application Thread (AnimationTimer)
+	 * Draw the model on the canvas in a JavaFX Application Thread (AnimationTimer).
+	 * The model is updated by the SimulationRunner, and only the latest snapshot of it is drawn.
 	 */
 	private void drawSimulation() {
 		if(at==null){
 			at = new AnimationTimer(){
 				@Override
 				public void handle(long now) {
-					// Update the model
-					Controller.this.sys.updatePositions(); 	
-
-					// Clear the canvas
-					gc.translate(-translateX, -translateY);
-					gc.clearRect(-canvas.getWidth(), -canvas.getHeight(), canvas.getWidth()*2, canvas.getHeight()*2); 
-					int totalBodies = 0;
-					for(ArrayList<Body> bodies : sys.getBodies()){
-						totalBodies += bodies.size();
-					}
-					String txt = "# of bodies: " + totalBodies;
-					gc.setFill(Color.YELLOW);
-					gc.fillText(txt, 20, 30);
-
-					// Update the translate vector to match center of gravity
-					//					Point2D gravityCenter = sys.getGravityCenter(canvas);
-					//					translateX = canvas.getWidth()/2.0 - gravityCenter.getX();
-					//					translateY = canvas.getHeight()/2.0 - gravityCenter.getY();
-					gc.translate(translateX, translateY);
-
-					// Draw the bodies (Comets & Asteroids)
-					Point2D p;
-					for(ArrayList<Body> bodies : sys.getBodies()){
-						for(Body b : bodies){
-							p = transformToPixels(b.rx, b.ry);
-							if(b instanceof Comet){ // Comets are larger, and have a tail
-								gc.setFill(b.color); 
-								gc.fillOval(p.getX(), p.getY(), 8, 8); // Draw the body
-								//							gc.setStroke(b.color);
-								//							gc.setLineWidth(2);
-								//							double dist = Math.sqrt(p.getX()*p.getX() + p.getY()*p.getY());
-								//							double angle = Math.atan2(p.getY(), p.getX());
-								//							double tailX = p.getX() + (Math.abs(canvas.getWidth()-dist)/50)*Math.cos(angle); // TODO - calculate based on distance to sun (center) and angle
-								//							double tailY = p.getY() + (Math.abs(canvas.getHeight()-dist)/50)*Math.sin(angle); // TODO
-								//							gc.strokeLine(p.getX()+4, p.getY()+4, tailX, tailY); // Draw the tail
-							} else { // Asteroids							
-								gc.setFill(b.color);
-								gc.fillOval(p.getX()-b.diameter/2, p.getY()-b.diameter/2, b.diameter, b.diameter);
-							}
-						}
-					}
-					// Draw the gravity bodies
-					for(Body b : sys.getGravityBodies()){
-						p = transformToPixels(b.rx, b.ry);
-						if(b instanceof Star){	
-							gc.drawImage(sun, p.getX()-b.diameter/2, p.getY()-b.diameter/2, b.diameter, b.diameter);
-//							System.out.println("Transformed coord: " + p.getX() + "," + p.getY());
-//							System.out.println("Sun coord: " + b.rx + "," + b.ry);
-						} else if (b instanceof BlackHole) {
-							gc.drawImage(black_hole, p.getX()-b.diameter/4, p.getY()-b.diameter/4, b.diameter/2, b.diameter/2);				
-						} else {
-							gc.setFill(b.color);    		
-							gc.fillOval(p.getX()-b.diameter/2, p.getY()-b.diameter/2, b.diameter, b.diameter);	
-//							gc.fillOval(p.getX(), p.getY(), 1, 1);
-						}
-					}
-					// Draw the collisions
-					for(Collision b : sys.getCollisions()){
-						p = transformToPixels(b.rx, b.ry);
-						gc.setFill(Color.YELLOW);
-						gc.fillOval(p.getX()-b.diameter/2, p.getY()-b.diameter/2, b.diameter*5, b.diameter*5);
-					}		
+					draw(snapshots.latest());
 				}
 			};
 		}
 		at.start();
 	}
 
+	// Draw a snapshot of the model
+	private void draw(Snapshot s) {
+		long start = System.nanoTime();
+		// Clear the canvas
+		gc.translate(-translateX, -translateY);
+		gc.clearRect(-canvas.getWidth(), -canvas.getHeight(), canvas.getWidth()*2, canvas.getHeight()*2); 
+		int totalBodies = s.count;
+		String txt = "# of bodies: " + totalBodies;
+		if(sys.getKnownBodiesLoaded() < sys.getKnownBodiesRequested()){
+			txt += " (loading asteroids: " + sys.getKnownBodiesLoaded() + " / " + sys.getKnownBodiesRequested() + ")";
+		}
+		gc.setFill(Color.YELLOW);
+		gc.fillText(txt, 20, 30);
+		if(metricsMode){
+			drawMetrics(start);
+		}
+
+		// Update the translate vector to match center of gravity
+		//					Point2D gravityCenter = sys.getGravityCenter(canvas);
+		//					translateX = canvas.getWidth()/2.0 - gravityCenter.getX();
+		//					translateY = canvas.getHeight()/2.0 - gravityCenter.getY();
+		gc.translate(translateX, translateY);
+
+		// Pixels per meter, and the part of the canvas that is visible in the translated coordinates
+		double width = canvas.getWidth(), height = canvas.getHeight();
+		double sx = (width/2)/scale, sy = (height/2)/scale;
+		double left = -translateX, top = -translateY, right = width - translateX, bottom = height - translateY;
+
+		// Draw the bodies (Comets & Asteroids)
+		if(pixelMode){ // All the asteroids at once
+			gc.drawImage(pixelRenderer.render(s, (int) Math.ceil(width), (int) Math.ceil(height), sx, sy, left, top), left, top);
+		} else if(densityMode){
+			density.clear((int) Math.ceil(width), (int) Math.ceil(height));
+			if(paletteArgb.length < s.palette.length){
+				paletteArgb = new int[s.palette.length];
+			}
+			for(int k = 0; k < s.palette.length; k++){
+				paletteArgb[k] = DensityImage.toArgb(s.palette[k]);
+			}
+		}
+		for(int i = 0; i < totalBodies; i++){
+			double x = s.rx[i]*sx, y = s.ry[i]*sy;
+			if(s.type[i] == BodyStore.TYPE_COMET){ // Comets are larger, and have a tail
+				if(x + 8 < left || x > right || y + 8 < top || y > bottom){
+					continue;
+				}
+				gc.setFill(s.palette[s.colorIndex[i]]); 
+				gc.fillOval(x, y, 8, 8); // Draw the body
+				//							gc.setStroke(b.color);
+				//							gc.setLineWidth(2);
+				//							double dist = Math.sqrt(p.getX()*p.getX() + p.getY()*p.getY());
+				//							double angle = Math.atan2(p.getY(), p.getX());
+				//							double tailX = p.getX() + (Math.abs(canvas.getWidth()-dist)/50)*Math.cos(angle); // TODO - calculate based on distance to sun (center) and angle
+				//							double tailY = p.getY() + (Math.abs(canvas.getHeight()-dist)/50)*Math.sin(angle); // TODO
+				//							gc.strokeLine(p.getX()+4, p.getY()+4, tailX, tailY); // Draw the tail
+			} else { // Asteroids							
+				if(pixelMode){
+					continue; // Already drawn
+				}
+				int diameter = s.diameter[i];
+				if(x + diameter < left || x - diameter > right || y + diameter < top || y - diameter > bottom){
+					continue;
+				}
+				if(densityMode && diameter <= 1){ // Counted on its pixel instead of drawn
+					density.add(x - left, y - top, paletteArgb[s.colorIndex[i]]);
+					continue;
+				}
+				gc.setFill(s.palette[s.colorIndex[i]]);
+				gc.fillOval(x-diameter/2, y-diameter/2, diameter, diameter);
+			}
+		}
+		if(densityMode && !pixelMode){
+			gc.drawImage(density.toImage(), left, top);
+		}
+		// Draw the gravity bodies
+		for(int j = 0; j < s.gravityCount; j++){
+			double x = s.grx[j]*sx, y = s.gry[j]*sy;
+			int diameter = s.gdiameter[j];
+			if(x + diameter < left || x - diameter > right || y + diameter < top || y - diameter > bottom){
+				continue;
+			}
+			if(s.gkind[j] == Snapshot.STAR){	
+				gc.drawImage(sun, x-diameter/2, y-diameter/2, diameter, diameter);
+//							System.out.println("Transformed coord: " + p.getX() + "," + p.getY());
+//							System.out.println("Sun coord: " + b.rx + "," + b.ry);
+			} else if (s.gkind[j] == Snapshot.BLACK_HOLE) {
+				gc.drawImage(black_hole, x-diameter/4, y-diameter/4, diameter/2, diameter/2);				
+			} else {
+				gc.setFill(s.gcolor[j]);    		
+				gc.fillOval(x-diameter/2, y-diameter/2, diameter, diameter);	
+//							gc.fillOval(p.getX(), p.getY(), 1, 1);
+			}
+		}
+		// Draw the collisions
+		gc.setFill(Color.YELLOW);
+		for(Collision b : s.collisions){
+			double x = b.rx*sx, y = b.ry*sy;
+			gc.fillOval(x-b.diameter/2, y-b.diameter/2, b.diameter*5, b.diameter*5);
+		}		
+		sys.getMetrics().record(StepMetrics.Phase.RENDER, System.nanoTime() - start);
+	}
+
+	// Write p50/p99 of every phase below the number of bodies. The lines are refreshed twice a second so they can be read.
+	private void drawMetrics(long now){
+		if(metricsLines.length == 0 || now - metricsTime > METRICS_REFRESH){
+			metricsTime = now;
+			StepMetrics metrics = sys.getMetrics();
+			StepMetrics.Phase[] phases = StepMetrics.Phase.values();
+			metricsLines = new String[phases.length];
+			for(int p = 0; p < phases.length; p++){
+				metricsLines[p] = String.format("%-14s p50 %8.3f ms   p99 %8.3f ms", phases[p].name().toLowerCase(),
+						metrics.get(phases[p]).getP50Micros()/1e3, metrics.get(phases[p]).getP99Micros()/1e3);
+			}
+		}
+		for(int i = 0; i < metricsLines.length; i++){
+			gc.fillText(metricsLines[i], 20, 50 + 16*i);
+		}
+	}
+
 	@FXML
 	void stopSimulation(ActionEvent event) {
 		// Stop the simulation
+		runner.stop();
 		if(at!=null){
 			at.stop();			
 		}
@@ -301,6 +390,7 @@ public class Controller {
 		this.showComets.setDisable(false);
 		this.useRealAsteroids.setDisable(false);
 		this.enableCollisions.setDisable(false);
+		this.mutualGravity.setDisable(false);
 	}
 	
 
@@ -321,21 +411,45 @@ public class Controller {
     	sys.setCollisions(collisions);
     }
 
-	public void setTranslate(double translateX, double translateY) {
-		//		this.translateX += translateX;
-		//		this.translateY += translateY;
+    @FXML
+    void toggleMutualGravity(ActionEvent event) {
+    	if(mutualGravity.isSelected()){
+    		sys.setGravityEngine(new BarnesHutGravity());
+    	} else {
+    		sys.setGravityEngine(null);
+    	}
+    }
+
+	// The slider sets the simulated time per frame, which is shared by the updates of the frame
+	private void setSpeed(double timePerFrame){
+		sys.setDeltaTime(Math.max(BodySystem.minDeltaTime, timePerFrame/SUBSTEPS));
 	}
 
-	private Point2D transformToPixels(Point2D p){
-		double x = p.getX()*(canvas.getWidth()/2)/scale;
-		double y = p.getY()*(canvas.getHeight()/2)/scale;
-		return new Point2D(x,y);
+	/**
+	 * Switch between the density image and drawing every small body on its own
+	 */
+	public void toggleDensity() {
+		densityMode = !densityMode;
 	}
 
-	private Point2D transformToPixels(double x, double y){
-		double x1 = x*(canvas.getWidth()/2)/scale;
-		double y1 = y*(canvas.getHeight()/2)/scale;
-		return new Point2D(x1,y1);
+	/**
+	 * Switch between drawing the asteroids into a pixel buffer and drawing them with the GraphicsContext
+	 */
+	public void togglePixels() {
+		pixelMode = !pixelMode;
+	}
+
+	/**
+	 * Show or hide the time taken by the phases of the updates and the drawing
+	 */
+	public void toggleMetrics() {
+		metricsMode = !metricsMode;
+		metricsLines = new String[0];
+	}
+
+	public void setTranslate(double translateX, double translateY) {
+		//		this.translateX += translateX;
+		//		this.translateY += translateY;
 	}
 
 	private Point2D transformToUniverse(Point2D p){
@@ -0,0 +1,81 @@
+package application;
+
+import java.util.Arrays;
+
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+/**
+ * Counts the bodies that cover no more than a pixel, per pixel of the canvas, and shows them as one image.
+ * The more bodies on a pixel the more opaque it is, so dense regions stay visible when zoomed out,
+ * for the price of a single drawImage instead of a fillOval per body.
+ */
+class DensityImage {
+
+	private int width, height;
+	private int[] counts = new int[0];
+	private int[] colors = new int[0]; // ARGB of the last body counted on each pixel
+	private int[] pixels = new int[0];
+	private WritableImage image;
+	private int max;                   // Highest count since clear()
+
+	/**
+	 * Start a new frame for a canvas of the given size in pixels
+	 */
+	void clear(int width, int height){
+		if(width != this.width || height != this.height){
+			this.width = width;
+			this.height = height;
+			counts = new int[width*height];
+			colors = new int[width*height];
+			pixels = new int[width*height];
+			image = new WritableImage(Math.max(1, width), Math.max(1, height));
+		} else {
+			Arrays.fill(counts, 0);
+		}
+		max = 0;
+	}
+
+	/**
+	 * Count a body on pixel (x, y) of the canvas. Bodies outside of it are ignored.
+	 */
+	void add(double x, double y, int argb){
+		if(x < 0 || y < 0 || x >= width || y >= height){
+			return;
+		}
+		int p = (int) y*width + (int) x;
+		int c = ++counts[p];
+		colors[p] = argb;
+		if(c > max){
+			max = c;
+		}
+	}
+
+	/**
+	 * The counts since clear() as an image the size of the canvas
+	 */
+	WritableImage toImage(){
+		// Opacity grows with the logarithm of the count, a single body is still clearly visible
+		double norm = max > 1 ? 1/Math.log(max) : 0;
+		for(int p = 0; p < pixels.length; p++){
+			int c = counts[p];
+			if(c == 0){
+				pixels[p] = 0;
+			} else {
+				int alpha = (int) (160 + 95*Math.log(c)*norm);
+				pixels[p] = alpha << 24 | colors[p] & 0xFFFFFF;
+			}
+		}
+		if(width > 0 && height > 0){
+			image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+		}
+		return image;
+	}
+
+	static int toArgb(Color c){
+		return (int) Math.round(c.getOpacity()*255) << 24 | (int) Math.round(c.getRed()*255) << 16
+				| (int) Math.round(c.getGreen()*255) << 8 | (int) Math.round(c.getBlue()*255);
+	}
+
+}
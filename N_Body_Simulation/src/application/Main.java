@@ -31,6 +31,9 @@ public class Main extends Application {
 					case DOWN: translateY = step; break;
 					case LEFT: translateX = -step; break;
 					case RIGHT: translateX = step; break;
+					case D: controller.toggleDensity(); break;
+					case P: controller.togglePixels(); break;
+					case M: controller.toggleMetrics(); break;
 					}
 					controller.setTranslate(translateX, translateY);
 
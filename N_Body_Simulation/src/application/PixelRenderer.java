@@ -0,0 +1,263 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import model.BodyStore;
+import model.Snapshot;
+
+/**
+ * Draws the asteroids of a snapshot straight into an ARGB pixel buffer, which is copied to an image with a single
+ * setPixels() call. The cost per frame is a pass over the bodies and the pixels, without a draw call per body.
+ *
+ * With more than one thread the canvas is cut in horizontal stripes that are filled at the same time, so the threads
+ * never write the same pixel. The bodies are first sorted into the stripes they cover, each thread taking a part
+ * of the bodies, so every body is only visited once per pass and the order of the bodies is kept in each stripe.
+ */
+class PixelRenderer {
+
+	private final ExecutorService pool; // null to draw on the calling thread
+	private final int stripes;
+
+	private int width, height;
+	private int[] pixels = new int[0];
+	private WritableImage image;
+	private int[] paletteArgb = new int[0];
+
+	private static final int BIN = 0, SCATTER = 1, FILL = 2; // The passes over the bodies with more than one stripe
+	private int[] rowStripe = new int[0]; // The stripe of every row
+	private int[] span = new int[0];      // Per body: first stripe << 16 | last stripe it covers, -1 if not visible
+	private final int[] offsets;          // Per part of the bodies and stripe: where its bodies go in bins
+	private final int[] binStart;         // Start of every stripe in bins, and the end of the last
+	private int[] bins = new int[0];      // The bodies covering each stripe, stripe after stripe, in order
+
+	// The frame being drawn
+	private Snapshot snapshot;
+	private double sx, sy, left, top;
+
+	PixelRenderer(int threads){
+		stripes = Math.min(1 << 15, Math.max(1, threads));
+		offsets = new int[stripes*stripes];
+		binStart = new int[stripes+1];
+		if(stripes > 1){
+			pool = Executors.newFixedThreadPool(stripes, new ThreadFactory(){
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "PixelRenderer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		} else {
+			pool = null;
+		}
+	}
+
+	/**
+	 * Draw the asteroids of the snapshot on an image the size of the canvas.
+	 * @param sx pixels per meter horizontally
+	 * @param sy pixels per meter vertically
+	 * @param left position of the left edge of the canvas, in pixels from the origin of the universe
+	 * @param top position of the top edge of the canvas, in pixels from the origin of the universe
+	 */
+	WritableImage render(Snapshot s, int width, int height, double sx, double sy, double left, double top){
+		if(width != this.width || height != this.height){
+			this.width = width;
+			this.height = height;
+			pixels = new int[width*height];
+			image = new WritableImage(Math.max(1, width), Math.max(1, height));
+			rowStripe = new int[height];
+			for(int k = 0; k < stripes; k++){
+				Arrays.fill(rowStripe, height*k/stripes, height*(k+1)/stripes, k);
+			}
+		} else {
+			Arrays.fill(pixels, 0);
+		}
+		if(paletteArgb.length < s.palette.length){
+			paletteArgb = new int[s.palette.length];
+		}
+		for(int k = 0; k < s.palette.length; k++){
+			paletteArgb[k] = DensityImage.toArgb(s.palette[k]);
+		}
+		this.snapshot = s;
+		this.sx = sx;
+		this.sy = sy;
+		this.left = left;
+		this.top = top;
+
+		if(pool == null){
+			for(int i = 0; i < s.count; i++){
+				draw(i, 0, height);
+			}
+		} else {
+			if(span.length < s.count){
+				span = new int[s.count];
+			}
+			run(BIN);
+			// Place the bodies of each stripe part after part, so they stay in the order of the snapshot
+			int total = 0;
+			for(int k = 0; k < stripes; k++){
+				binStart[k] = total;
+				for(int part = 0; part < stripes; part++){
+					int n = offsets[part*stripes + k];
+					offsets[part*stripes + k] = total;
+					total += n;
+				}
+			}
+			binStart[stripes] = total;
+			if(bins.length < total){
+				bins = new int[total];
+			}
+			run(SCATTER);
+			run(FILL);
+		}
+		if(width > 0 && height > 0){
+			image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+		}
+		return image;
+	}
+
+	// Run a pass on all threads: part k of the bodies for BIN and SCATTER, stripe k for FILL
+	private void run(final int pass){
+		ArrayList<Future<Void>> done = new ArrayList<Future<Void>>(stripes);
+		for(int k = 0; k < stripes; k++){
+			final int part = k;
+			done.add(pool.submit(new Callable<Void>(){
+				@Override
+				public Void call() {
+					switch(pass){
+					case BIN:
+						bin(part);
+						break;
+					case SCATTER:
+						scatter(part);
+						break;
+					case FILL:
+						fill(part);
+						break;
+					}
+					return null;
+				}
+			}));
+		}
+		for(Future<Void> f : done){
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+	}
+
+	// Find the stripes covered by the bodies of the part, and count the bodies of every stripe
+	private void bin(int part){
+		Snapshot s = snapshot;
+		int from = (int) ((long) s.count*part/stripes), to = (int) ((long) s.count*(part+1)/stripes);
+		int[] count = offsets;
+		int base = part*stripes;
+		Arrays.fill(count, base, base + stripes, 0);
+		for(int i = from; i < to; i++){
+			span[i] = -1;
+			if(s.type[i] != BodyStore.TYPE_ASTEROID){
+				continue;
+			}
+			int d = s.diameter[i];
+			double x = s.rx[i]*sx - left - d/2, y = s.ry[i]*sy - top - d/2;
+			int row0, row1; // The rows [row0, row1) the body covers
+			if(d <= 1){
+				row0 = (int) Math.floor(y);
+				row1 = row0 + 1;
+				if(x < 0 || x >= width){
+					continue;
+				}
+			} else {
+				if(x + d <= 0 || x >= width){
+					continue;
+				}
+				row0 = (int) Math.floor(y);
+				row1 = (int) Math.ceil(y + d);
+			}
+			row0 = Math.max(0, row0);
+			row1 = Math.min(height, row1);
+			if(row0 >= row1){
+				continue;
+			}
+			int first = rowStripe[row0], last = rowStripe[row1-1];
+			span[i] = first << 16 | last;
+			for(int k = first; k <= last; k++){
+				count[base + k]++;
+			}
+		}
+	}
+
+	// Put the bodies of the part in the bins of their stripes
+	private void scatter(int part){
+		Snapshot s = snapshot;
+		int from = (int) ((long) s.count*part/stripes), to = (int) ((long) s.count*(part+1)/stripes);
+		int base = part*stripes;
+		for(int i = from; i < to; i++){
+			int sp = span[i];
+			if(sp < 0){
+				continue;
+			}
+			for(int k = sp >>> 16, last = sp & 0xFFFF; k <= last; k++){
+				bins[offsets[base + k]++] = i;
+			}
+		}
+	}
+
+	// Draw the bodies in the bin of a stripe
+	private void fill(int stripe){
+		int rowFrom = height*stripe/stripes, rowTo = height*(stripe+1)/stripes;
+		for(int b = binStart[stripe]; b < binStart[stripe+1]; b++){
+			draw(bins[b], rowFrom, rowTo);
+		}
+	}
+
+	// Draw body i if it is an asteroid, on the rows [rowFrom, rowTo) only
+	private void draw(int i, int rowFrom, int rowTo){
+		Snapshot s = snapshot;
+		if(s.type[i] != BodyStore.TYPE_ASTEROID){
+			return;
+		}
+		int[] px = pixels;
+		int w = width;
+		// The same box as fillOval(x-d/2, y-d/2, d, d), in canvas pixels
+		int d = s.diameter[i];
+		double x = s.rx[i]*sx - left - d/2, y = s.ry[i]*sy - top - d/2;
+		if(d <= 1){
+			int row = (int) Math.floor(y), col = (int) Math.floor(x);
+			if(row >= rowFrom && row < rowTo && col >= 0 && col < w){
+				px[row*w + col] = paletteArgb[s.colorIndex[i]];
+			}
+			return;
+		}
+		if(y + d <= rowFrom || y >= rowTo || x + d <= 0 || x >= w){
+			return;
+		}
+		int argb = paletteArgb[s.colorIndex[i]];
+		double r = d/2.0, cx = x + r, cy = y + r;
+		int y0 = Math.max(rowFrom, (int) Math.floor(y)), y1 = Math.min(rowTo, (int) Math.ceil(y + d));
+		for(int row = y0; row < y1; row++){
+			double dy = row + 0.5 - cy;
+			double half = r*r - dy*dy;
+			if(half < 0){
+				continue;
+			}
+			half = Math.sqrt(half);
+			int x0 = Math.max(0, (int) Math.round(cx - half)), x1 = Math.min(w, (int) Math.round(cx + half));
+			Arrays.fill(px, row*w + x0, row*w + Math.max(x0, x1), argb);
+		}
+	}
+
+}
@@ -0,0 +1,207 @@
+package files;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import model.BodySystem;
+
+/**
+ * Parses a part of a catalog file straight from its bytes, without creating a String per line.
+ * Each line holds: name, eccentricity, semi-major axis (AU), longitude of the ascending node,
+ * argument of perihelion and optionally the diameter (km), separated by commas.
+ */
+class CatalogParser {
+
+	// Powers of ten that are exact doubles
+	private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+	private final byte[] data;
+	private final String name; // For the error messages
+	private int pos;           // Next byte to read
+	private int fields;        // Number of fields on the current line
+	private final double[] values = new double[5];
+
+	CatalogParser(byte[] data, String name){
+		this.data = data;
+		this.name = name;
+	}
+
+	/**
+	 * The start of the first line that begins at or after pos
+	 */
+	static int lineStart(byte[] data, int pos){
+		if(pos <= 0){
+			return 0;
+		}
+		while(pos < data.length && data[pos-1] != '\n'){
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * Parse the lines in [from, to). from must be the start of a line, and to the start of a line or the end of the data.
+	 */
+	OrbitalElements parse(int from, int to){
+		int capacity = Math.max(16, (to - from)/64);
+		double[] a = new double[capacity], e = new double[capacity], om = new double[capacity], w = new double[capacity], m = new double[capacity];
+		int n = 0;
+		pos = from;
+		while(pos < to){
+			int lineEnd = pos;
+			while(lineEnd < to && data[lineEnd] != '\n'){
+				lineEnd++;
+			}
+			if(parseLine(lineEnd)){
+				if(n == a.length){
+					int c = n + (n >> 1);
+					a = Arrays.copyOf(a, c);
+					e = Arrays.copyOf(e, c);
+					om = Arrays.copyOf(om, c);
+					w = Arrays.copyOf(w, c);
+					m = Arrays.copyOf(m, c);
+				}
+				a[n] = values[1]*BodySystem.earthDistance;
+				e[n] = values[0];
+				om[n] = values[2];
+				w[n] = values[3];
+				double radius = fields == 6 ? values[4]/2 : Math.random()*50; // No data on the comet size
+				double volume = (4/3)*Math.PI*Math.pow(radius*1000, 3);
+				m[n] = (0.6/1000) * volume;
+				n++;
+			}
+			pos = lineEnd + 1;
+		}
+		return new OrbitalElements(a, e, om, w, m, n);
+	}
+
+	// Read the numbers of the line ending at lineEnd. The first field (the name) is skipped.
+	private boolean parseLine(int lineEnd){
+		int end = lineEnd;
+		if(end > pos && data[end-1] == '\r'){
+			end--;
+		}
+		// Like String.split(), ignore empty fields at the end of the line
+		while(end > pos && data[end-1] == ','){
+			end--;
+		}
+		if(end == pos){
+			return false; // Empty line
+		}
+		fields = 1;
+		int p = pos;
+		while(p < end && data[p] != ','){
+			p++;
+		}
+		while(p < end){
+			int start = p + 1;
+			p = start;
+			while(p < end && data[p] != ','){
+				p++;
+			}
+			if(fields > 5){
+				fields++;
+				continue;
+			}
+			try {
+				values[fields-1] = parseDouble(start, p);
+			} catch (NumberFormatException ex){
+				System.err.println(name + " format exception.");
+				return false;
+			}
+			fields++;
+		}
+		if(fields != 5 && fields != 6){
+			System.err.println(name + " format exception.");
+			return false;
+		}
+		return true;
+	}
+
+	// Digits with an optional sign, decimal point and exponent. When the digits fit in the 53 bits of a double
+	// and the power of ten is exact, a single multiplication or division rounds the same way Double.parseDouble
+	// does. Anything else goes to Double.parseDouble.
+	private double parseDouble(int from, int to){
+		int p = from;
+		while(p < to && data[p] == ' '){
+			p++;
+		}
+		while(to > p && data[to-1] == ' '){
+			to--;
+		}
+		if(p == to){
+			throw new NumberFormatException("empty");
+		}
+		boolean negative = false;
+		if(data[p] == '-' || data[p] == '+'){
+			negative = data[p] == '-';
+			p++;
+		}
+		long mantissa = 0;
+		int digits = 0;       // Significant digits in the mantissa
+		int scale = 0;        // Power of ten to apply to the mantissa
+		boolean any = false, point = false;
+		for(; p < to; p++){
+			byte c = data[p];
+			if(c >= '0' && c <= '9'){
+				any = true;
+				if(mantissa == 0 && c == '0'){
+					if(point){
+						scale--;
+					}
+					continue;
+				}
+				if(digits < 18){
+					mantissa = mantissa*10 + (c - '0');
+					digits++;
+					if(point){
+						scale--;
+					}
+				} else {
+					digits++;
+					if(!point){
+						scale++;
+					}
+				}
+			} else if(c == '.' && !point){
+				point = true;
+			} else if((c == 'e' || c == 'E') && any){
+				scale += parseExponent(p + 1, to);
+				p = to;
+				break;
+			} else {
+				throw new NumberFormatException(new String(data, from, to - from, StandardCharsets.US_ASCII));
+			}
+		}
+		if(!any){
+			throw new NumberFormatException(new String(data, from, to - from, StandardCharsets.US_ASCII));
+		}
+		if(digits > 18 || mantissa > (1L << 53) || scale < -22 || scale > 22){
+			return Double.parseDouble(new String(data, from, to - from, StandardCharsets.US_ASCII).trim());
+		}
+		double value = scale < 0 ? mantissa / POW10[-scale] : mantissa * POW10[scale];
+		return negative ? -value : value;
+	}
+
+	private int parseExponent(int p, int to){
+		boolean negative = false;
+		if(p < to && (data[p] == '-' || data[p] == '+')){
+			negative = data[p] == '-';
+			p++;
+		}
+		if(p == to){
+			throw new NumberFormatException("exponent");
+		}
+		int exp = 0;
+		for(; p < to; p++){
+			byte c = data[p];
+			if(c < '0' || c > '9'){
+				throw new NumberFormatException("exponent");
+			}
+			exp = Math.min(exp*10 + (c - '0'), 10000);
+		}
+		return negative ? -exp : exp;
+	}
+
+}
@@ -1,139 +1,346 @@
 package files;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
-import javafx.scene.paint.Color;
-import model.Asteroid;
-import model.Body;
-import model.BodySystem;
-import model.Comet;
-
+/**
+ * Loads the known comets and asteroids in the background. The catalogs are split in chunks that are parsed
+ * in parallel, and the result is kept in a binary cache file, so the next start only has to read that.
+ * Each catalog is loaded once and shared: the bodies are created from the same orbital elements on every reset.
+ * The parsed chunks can also be read one by one with getChunk() while the rest is still being parsed.
+ */
 public class FileLoader {
-	
-	private boolean cometLoadDone, asteroidLoadDone;
-	private ArrayList<Body> cometList;
-	private ArrayList<Asteroid> asteroidsList;
-	private InputStream cometStream, asteroidStream;
-	
-	public FileLoader(Body center){
-		cometStream = this.getClass().getClassLoader().getResourceAsStream("resources/comets.txt");
-		asteroidStream = this.getClass().getClassLoader().getResourceAsStream("resources/asteroids.txt");
-		cometList = new ArrayList<Body>();
-		asteroidsList = new ArrayList<Asteroid>();
-		this.loadComets(center);
-		this.loadAsteroids(center);
+
+	public static final String COMETS = "resources/comets.txt";
+	public static final String ASTEROIDS = "resources/asteroids.txt";
+
+	private static final int CHUNK_SIZE = 1 << 20;     // Bytes of a catalog parsed per task
+	private static final int CACHE_MAGIC = 0x4E424341; // "NBCA"
+	private static final int CACHE_VERSION = 1;
+	private static final int CACHE_HEADER = 28;
+	private static final Path CACHE_DIR = Paths.get(System.getProperty("nbody.cache", System.getProperty("java.io.tmpdir") + "/nbody-cache"));
+
+	// Parses the chunks first come first served, so they tend to finish in the order of the file
+	private static final ExecutorService parsers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory(){
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "CatalogParser");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private static final ConcurrentHashMap<String, Catalog> catalogs = new ConcurrentHashMap<String, Catalog>();
+
+	// A catalog being loaded: the chunks parsed so far in order, and all of its orbital elements when done.
+	// The chunks are dropped once they are joined, and then cut from the joined elements again when asked for.
+	private static class Catalog {
+		CompletableFuture<OrbitalElements> elements;
+		private ArrayList<OrbitalElements> chunks = new ArrayList<OrbitalElements>();
+		private int[] ends = new int[16]; // Index after the last body of every chunk in the joined elements
+		private int count;                // Number of chunks published
+		private OrbitalElements all;
+		private boolean done;
+
+		synchronized void publish(OrbitalElements chunk){
+			chunks.add(chunk);
+			if(count == ends.length){
+				ends = Arrays.copyOf(ends, count*2);
+			}
+			ends[count] = (count == 0 ? 0 : ends[count-1]) + chunk.size();
+			count++;
+			notifyAll();
+		}
+
+		// el is null if the catalog could not be loaded
+		synchronized void finish(OrbitalElements el){
+			done = true;
+			if(el != null){
+				all = el;
+				chunks = null;
+			}
+			notifyAll();
+		}
+
+		synchronized OrbitalElements await(int k){
+			while(k >= count && !done){
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
+			if(k >= count){
+				return null;
+			}
+			return all != null ? all.slice(k == 0 ? 0 : ends[k-1], ends[k]) : chunks.get(k);
+		}
+	}
+
+	private FileLoader(){
+	}
+
+	/**
+	 * Start loading a catalog on the class path, e.g. COMETS, unless it is loaded already.
+	 * Completes with its orbital elements. A catalog that failed to load is tried again on the next call.
+	 */
+	public static CompletableFuture<OrbitalElements> getCatalogAsync(String resource){
+		return catalog(resource).elements;
+	}
+
+	/**
+	 * Wait for the k-th chunk of a catalog, in the order of the file. The chunks are available as soon as they
+	 * are parsed, before the whole catalog is loaded.
+	 * @return null if the catalog has fewer chunks or could not be read
+	 */
+	public static OrbitalElements getChunk(String resource, int k){
+		return catalog(resource).await(k);
+	}
+
+	private static Catalog catalog(String resource){
+		Catalog c = catalogs.computeIfAbsent(resource, new Function<String, Catalog>(){
+			@Override
+			public Catalog apply(String r) {
+				return load(r);
+			}
+		});
+		if(c.elements.isCompletedExceptionally()){
+			Catalog retry = load(resource);
+			if(catalogs.replace(resource, c, retry)){
+				return retry;
+			}
+			return catalogs.get(resource);
+		}
+		return c;
+	}
+
+	/**
+	 * Wait for a catalog to be loaded. Empty if it could not be read.
+	 */
+	public static OrbitalElements getCatalog(String resource){
+		try {
+			return getCatalogAsync(resource).join();
+		} catch (CompletionException e){
+			e.getCause().printStackTrace();
+			return new OrbitalElements(new double[5][0], 0);
+		}
 	}
-	
-	private void loadComets(Body center){
-		cometLoadDone = false;
-		new Thread(new Runnable(){
 
+	// Read the catalog from the cache if it is up to date, otherwise parse it and write the cache
+	private static Catalog load(final String resource){
+		final String label = resource.substring(resource.lastIndexOf('/') + 1);
+		final long start = System.currentTimeMillis();
+		final Catalog catalog = new Catalog();
+		catalog.elements = CompletableFuture.supplyAsync(new Supplier<Source>(){
 			@Override
-			public void run() {
-				long start = System.currentTimeMillis();
-				try (BufferedReader br = new BufferedReader(new InputStreamReader(cometStream))) {
-				    String line;
-				    
-				    while ((line = br.readLine()) != null) {
-				       String[] s = line.split(",");
-				       if(s.length==6){
-				    	   double a = Double.parseDouble(s[2])*BodySystem.earthDistance;
-				    	   double e = Double.parseDouble(s[1]);
-				    	   double om = Double.parseDouble(s[3]);
-				    	   double w = Double.parseDouble(s[4]);
-				    	   double radius = Double.parseDouble(s[5])/2;
-				    	   double volume = (4/3)*Math.PI*Math.pow(radius*1000, 3);
-				    	   double mass = (0.6/1000) * volume;
-				    	   cometList.add(new Comet(a, e, om, w, mass, Color.WHITE, center));
-				       } else if (s.length == 5){
-				    	   double a = Double.parseDouble(s[2])*BodySystem.earthDistance;
-				    	   double e = Double.parseDouble(s[1]);
-				    	   double om = Double.parseDouble(s[3]);
-				    	   double w = Double.parseDouble(s[4]);
-				    	   double radius = Math.random()*50; // No data on the comet size
-				    	   double volume = (4/3)*Math.PI*Math.pow(radius*1000, 3);
-				    	   double mass = (0.6/1000) * volume;
-				    	   cometList.add(new Comet(a, e, om, w, mass, Color.WHITE, center));
-				       } else {
-				    	   System.err.println("Comets.txt format exception.");
-				       }
-				    }
-				    cometLoadDone = true;
-				    System.out.println(cometList.size() + " Comets loaded in " + (System.currentTimeMillis()-start) +"ms...");
+			public Source get() {
+				try {
+					return Source.open(resource);
 				} catch (IOException e){
-					e.printStackTrace();
+					throw new CompletionException(e);
 				}
 			}
-		}).start();;	
+		}).thenCompose(new Function<Source, CompletableFuture<OrbitalElements>>(){
+			@Override
+			public CompletableFuture<OrbitalElements> apply(final Source source) {
+				OrbitalElements cached = readCache(source);
+				if(cached != null){
+					System.out.println(cached.size() + " " + label + " loaded from cache in " + (System.currentTimeMillis()-start) +"ms...");
+					catalog.publish(cached);
+					return CompletableFuture.completedFuture(cached);
+				}
+				return parse(source, label, catalog).thenApply(new Function<OrbitalElements, OrbitalElements>(){
+					@Override
+					public OrbitalElements apply(OrbitalElements el) {
+						System.out.println(el.size() + " " + label + " loaded in " + (System.currentTimeMillis()-start) +"ms...");
+						writeCache(source, el);
+						return el;
+					}
+				});
+			}
+		}).whenComplete(new BiConsumer<OrbitalElements, Throwable>(){
+			@Override
+			public void accept(OrbitalElements el, Throwable failure) {
+				catalog.finish(el);
+			}
+		});
+		return catalog;
 	}
-	
-	private void loadAsteroids(Body center){
-		asteroidLoadDone = false;
-		new Thread(new Runnable(){
+
+	// Parse the chunks of the catalog in parallel, publish them in order and join them
+	private static CompletableFuture<OrbitalElements> parse(final Source source, final String label, final Catalog catalog){
+		final byte[] data;
+		try {
+			data = source.readAll();
+		} catch (IOException e){
+			CompletableFuture<OrbitalElements> failed = new CompletableFuture<OrbitalElements>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+		int chunks = Math.max(1, (data.length + CHUNK_SIZE - 1)/CHUNK_SIZE);
+		final ArrayList<CompletableFuture<OrbitalElements>> parts = new ArrayList<CompletableFuture<OrbitalElements>>(chunks);
+		for(int k = 0; k < chunks; k++){
+			final int from = CatalogParser.lineStart(data, (int) ((long) data.length*k/chunks));
+			final int to = CatalogParser.lineStart(data, (int) ((long) data.length*(k+1)/chunks));
+			parts.add(CompletableFuture.supplyAsync(new Supplier<OrbitalElements>(){
+				@Override
+				public OrbitalElements get() {
+					return new CatalogParser(data, label).parse(from, to);
+				}
+			}, parsers));
+		}
+		CompletableFuture<Void> published = CompletableFuture.completedFuture(null);
+		for(CompletableFuture<OrbitalElements> part : parts){
+			published = published.thenCombine(part, new BiFunction<Void, OrbitalElements, Void>(){
+				@Override
+				public Void apply(Void v, OrbitalElements chunk) {
+					catalog.publish(chunk);
+					return null;
+				}
+			});
+		}
+		return published.thenApply(new Function<Void, OrbitalElements>(){
 			@Override
-			public void run() {
-				long start = System.currentTimeMillis();
-				try (BufferedReader br = new BufferedReader(new InputStreamReader(asteroidStream))) {
-				    String line;
-				    while ((line = br.readLine()) != null) {
-				       String[] s = line.split(",");
-				       if(s.length==6){
-				    	   double a = Double.parseDouble(s[2])*BodySystem.earthDistance;
-				    	   double e = Double.parseDouble(s[1]);
-				    	   double om = Double.parseDouble(s[3]);
-				    	   double w = Double.parseDouble(s[4]);
-				    	   double radius = Double.parseDouble(s[5])/2;
-				    	   double volume = (4/3)*Math.PI*Math.pow(radius*1000, 3);
-				    	   double mass = (0.6/1000) * volume;
-				    	   asteroidsList.add(new Asteroid(a, e, om, w, mass, Color.WHITE, center));
-				       } else if (s.length == 5){
-				    	   double a = Double.parseDouble(s[2])*BodySystem.earthDistance;
-				    	   double e = Double.parseDouble(s[1]);
-				    	   double om = Double.parseDouble(s[3]);
-				    	   double w = Double.parseDouble(s[4]);
-				    	   double radius = Math.random()*50; // No data on the comet size
-				    	   double volume = (4/3)*Math.PI*Math.pow(radius*1000, 3);
-				    	   double mass = (0.6/1000) * volume;
-				    	   asteroidsList.add(new Asteroid(a, e, om, w, mass, Color.WHITE, center));
-				       } else {
-				    	   System.err.println("Asteroids.txt format exception.");
-				       }
-				    }
-				    asteroidLoadDone = true;
-				    System.out.println(asteroidsList.size() + " Asteroids loaded in " + (System.currentTimeMillis()-start) +"ms...");
-				} catch (IOException e){
-					e.printStackTrace();
+			public OrbitalElements apply(Void v) {
+				ArrayList<OrbitalElements> list = new ArrayList<OrbitalElements>(parts.size());
+				for(CompletableFuture<OrbitalElements> part : parts){
+					list.add(part.join());
 				}
+				return OrbitalElements.concat(list);
 			}
-		}).start();;	
+		});
+	}
+
+	private static Path cacheFile(Source source){
+		return CACHE_DIR.resolve(source.resource.replace('/', '_') + ".bin");
 	}
-	
-	public ArrayList<Body> getCometList(){
-		while(!cometLoadDone){
-			try {
-				Thread.sleep(10);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+
+	// null if there is no cache for this version of the catalog
+	private static OrbitalElements readCache(Source source){
+		Path file = cacheFile(source);
+		if(!Files.isRegularFile(file)){
+			return null;
+		}
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+			if(ch.size() < CACHE_HEADER || buf.getInt() != CACHE_MAGIC || buf.getInt() != CACHE_VERSION
+					|| buf.getLong() != source.length || buf.getLong() != source.modified){
+				return null;
+			}
+			int n = buf.getInt();
+			if(ch.size() != CACHE_HEADER + 40L*n){
+				return null;
 			}
+			double[][] columns = new double[5][n];
+			for(double[] column : columns){
+				buf.asDoubleBuffer().get(column);
+				buf.position(buf.position() + 8*n);
+			}
+			return new OrbitalElements(columns, n);
+		} catch (IOException e){
+			return null;
+		}
+	}
+
+	// The cache is only an optimization, so failing to write it is not an error
+	private static void writeCache(Source source, OrbitalElements el){
+		if(source.modified == 0){
+			return; // Can't tell if the catalog changes
+		}
+		int n = el.size();
+		ByteBuffer buf = ByteBuffer.allocate(CACHE_HEADER + 40*n);
+		buf.putInt(CACHE_MAGIC).putInt(CACHE_VERSION).putLong(source.length).putLong(source.modified).putInt(n);
+		for(double[] column : el.columns()){
+			buf.asDoubleBuffer().put(column, 0, n);
+			buf.position(buf.position() + 8*n);
+		}
+		buf.flip();
+		try {
+			Files.createDirectories(CACHE_DIR);
+			Path file = cacheFile(source);
+			Path tmp = Files.createTempFile(CACHE_DIR, file.getFileName().toString(), ".tmp");
+			try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+				while(buf.hasRemaining()){
+					ch.write(buf);
+				}
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e){
+			System.err.println("Could not write the catalog cache: " + e.getMessage());
 		}
-			return cometList;
 	}
-	
-	public ArrayList<Asteroid> getAsteroidList(){
-		while(!asteroidLoadDone){
-			try {
-				Thread.sleep(10);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+
+	// A catalog on the class path, with what identifies its version
+	private static class Source {
+		final String resource;
+		final URL url;
+		final long length, modified;
+
+		private Source(String resource, URL url, long length, long modified){
+			this.resource = resource;
+			this.url = url;
+			this.length = length;
+			this.modified = modified;
+		}
+
+		static Source open(String resource) throws IOException {
+			URL url = FileLoader.class.getClassLoader().getResource(resource);
+			if(url == null){
+				throw new FileNotFoundException(resource);
+			}
+			URLConnection c = url.openConnection();
+			long length = c.getContentLengthLong();
+			long modified = c.getLastModified();
+			c.getInputStream().close();
+			return new Source(resource, url, length, modified);
+		}
+
+		byte[] readAll() throws IOException {
+			try (InputStream in = url.openStream()) {
+				byte[] data = new byte[length > 0 ? (int) length : 1 << 16];
+				int n = 0;
+				while(true){
+					if(n == data.length){
+						int b = in.read();
+						if(b < 0){
+							break;
+						}
+						data = Arrays.copyOf(data, data.length*2);
+						data[n++] = (byte) b;
+					}
+					int r = in.read(data, n, data.length - n);
+					if(r < 0){
+						break;
+					}
+					n += r;
+				}
+				return n == data.length ? data : Arrays.copyOf(data, n);
 			}
 		}
-		return asteroidsList;
 	}
 
 }
@@ -0,0 +1,79 @@
+package files;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The orbital elements of the bodies in a catalog, one column per element. Never changed after it is created,
+ * so it can be shared between threads.
+ */
+public class OrbitalElements {
+
+	private final double[] semiMajor;      // semi-major axis, already scaled with BodySystem.earthDistance
+	private final double[] eccentricity;
+	private final double[] longAscendNode; // degrees
+	private final double[] argPeri;        // degrees
+	private final double[] mass;
+	private final int size;
+
+	OrbitalElements(double[] semiMajor, double[] eccentricity, double[] longAscendNode, double[] argPeri, double[] mass, int size){
+		this.semiMajor = semiMajor;
+		this.eccentricity = eccentricity;
+		this.longAscendNode = longAscendNode;
+		this.argPeri = argPeri;
+		this.mass = mass;
+		this.size = size;
+	}
+
+	// The columns in the order semi-major axis, eccentricity, longitude of the ascending node, argument of perihelion, mass
+	OrbitalElements(double[][] columns, int size){
+		this(columns[0], columns[1], columns[2], columns[3], columns[4], size);
+	}
+
+	double[][] columns(){
+		return new double[][]{semiMajor, eccentricity, longAscendNode, argPeri, mass};
+	}
+
+	/**
+	 * Join the chunks of a catalog, in order
+	 */
+	static OrbitalElements concat(List<OrbitalElements> chunks){
+		int n = 0;
+		for(OrbitalElements c : chunks){
+			n += c.size;
+		}
+		double[] a = new double[n], e = new double[n], om = new double[n], w = new double[n], m = new double[n];
+		int k = 0;
+		for(OrbitalElements c : chunks){
+			System.arraycopy(c.semiMajor, 0, a, k, c.size);
+			System.arraycopy(c.eccentricity, 0, e, k, c.size);
+			System.arraycopy(c.longAscendNode, 0, om, k, c.size);
+			System.arraycopy(c.argPeri, 0, w, k, c.size);
+			System.arraycopy(c.mass, 0, m, k, c.size);
+			k += c.size;
+		}
+		return new OrbitalElements(a, e, om, w, m, n);
+	}
+
+	/**
+	 * The bodies [from, to), without copying them if that is all of them
+	 */
+	OrbitalElements slice(int from, int to){
+		if(from == 0 && to == size){
+			return this;
+		}
+		return new OrbitalElements(Arrays.copyOfRange(semiMajor, from, to), Arrays.copyOfRange(eccentricity, from, to),
+				Arrays.copyOfRange(longAscendNode, from, to), Arrays.copyOfRange(argPeri, from, to), Arrays.copyOfRange(mass, from, to), to - from);
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public double semiMajor(int i){ return semiMajor[i]; }
+	public double eccentricity(int i){ return eccentricity[i]; }
+	public double longAscendNode(int i){ return longAscendNode[i]; }
+	public double argPeri(int i){ return argPeri[i]; }
+	public double mass(int i){ return mass[i]; }
+
+}
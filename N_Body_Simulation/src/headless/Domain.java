@@ -0,0 +1,95 @@
+package headless;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import model.BodyStore;
+import model.BodySystem;
+
+/**
+ * The part of a domain decomposition one process updates: the non gravity bodies of its BodySystem at a distance
+ * from the origin between two bounds. The domains are rings around the origin, so a body on a near circular orbit
+ * stays in its domain and only the eccentric ones move between domains.
+ */
+class Domain {
+
+	private final BodySystem sys;
+	private double lo = 0.0, hi = Double.POSITIVE_INFINITY;
+	private final Migrants leaving = new Migrants(); // Bodies that left the domain in the last update
+	private final double[] sample = new double[DomainProtocol.SAMPLE];
+	private int sampled;
+	private int updated; // Bodies in the last update
+
+	Domain(BodySystem sys){
+		this.sys = sys;
+	}
+
+	BodySystem getSystem(){
+		return sys;
+	}
+
+	void setBounds(double[] bounds, int rank){
+		lo = bounds[rank];
+		hi = bounds[rank+1];
+	}
+
+	/**
+	 * Update the system, then take out the bodies outside of the bounds
+	 */
+	void update(Migrants arriving){
+		arriving.addTo(sys.getStore());
+		sys.updatePositions();
+		collect();
+	}
+
+	// Sample the bodies that were updated and move the ones outside of the domain to leaving
+	void collect(){
+		BodyStore store = sys.getStore();
+		int n = store.size();
+		updated = n;
+		sampled = Math.min(n, sample.length);
+		for(int k = 0; k < sampled; k++){
+			int i = (int) ((long) k*n/sampled);
+			sample[k] = Math.sqrt(store.rx(i)*store.rx(i) + store.ry(i)*store.ry(i));
+		}
+		leaving.clear();
+		double lo2 = lo*lo, hi2 = hi*hi; // Compare the squared distances
+		for(int i = 0; i < n; i++){
+			double x = store.rx(i), y = store.ry(i);
+			double r2 = x*x + y*y;
+			if(r2 < lo2 || r2 >= hi2){
+				leaving.add(store, i);
+				store.markRemoved(i);
+			}
+		}
+		if(leaving.size() > 0){
+			store.compact();
+		}
+	}
+
+	void writeReport(DataOutputStream out) throws IOException {
+		out.writeInt(updated);
+		out.writeInt(sampled);
+		for(int k = 0; k < sampled; k++){
+			out.writeDouble(sample[k]);
+		}
+		leaving.write(out);
+	}
+
+	int getUpdated(){
+		return updated;
+	}
+
+	int getSampled(){
+		return sampled;
+	}
+
+	double[] getSample(){
+		return sample;
+	}
+
+	Migrants getLeaving(){
+		return leaving;
+	}
+
+}
@@ -0,0 +1,277 @@
+package headless;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import model.BodySystem;
+
+/**
+ * Spreads the massless non gravity bodies over several processes, each with its own BodySystem and threads.
+ *
+ * The bodies are split in rings around the origin, one ring (domain) per process. The coordinator updates the
+ * first domain itself and the workers that joined over a socket the others. Before every update it sends each
+ * worker the gravity bodies of its own system, so all processes move the bodies through the same field, and the
+ * bodies that moved into the worker's ring. After the update the workers send back the bodies that left their
+ * ring. The bounds of the rings are set so every domain has about the same number of bodies, and moved again
+ * from samples of the distances of the bodies when the domains grow apart.
+ *
+ * The domains run without collisions: the mass a gravity body absorbs in a worker would be overwritten by the
+ * gravity bodies of the next frame.
+ */
+public class DomainCoordinator {
+
+	public static final int DEFAULT_PORT = 7100;
+	private static final double IMBALANCE = 1.1; // The domains are balanced again when the largest has this many times the mean
+
+	private final BodySystem sys;
+	private final int domains;
+	private final Domain local;
+	private Socket[] sockets;
+	private DataInputStream[] in;
+	private DataOutputStream[] out;
+
+	private final double[] bounds;      // Domain d holds the bodies at a distance from the origin in [bounds[d], bounds[d+1])
+	private final Migrants[] arriving;  // Bodies to add to each domain before its next update
+	private final Migrants[] left;      // Bodies that left each domain in the last update, the first is the one of local
+	private final int[] updated;        // Bodies in each domain in the last update
+	private final int[] sampled;
+	private final double[][] samples;   // Distances of some of the bodies of each domain in the last update
+	private final int[] counts;         // Bodies in each domain in the next update
+
+	private long steps, bodySteps, migrated;
+	private int rebalanced;
+
+	/**
+	 * @param sys the system of the first domain, with the settings for all of them
+	 * @param domains number of processes, including this one
+	 */
+	public DomainCoordinator(BodySystem sys, int domains){
+		this.sys = sys;
+		this.domains = Math.max(1, domains);
+		local = new Domain(sys);
+		bounds = new double[this.domains+1];
+		arriving = new Migrants[this.domains];
+		left = new Migrants[this.domains];
+		for(int d = 0; d < this.domains; d++){
+			arriving[d] = new Migrants();
+			left[d] = d == 0 ? local.getLeaving() : new Migrants();
+		}
+		updated = new int[this.domains];
+		sampled = new int[this.domains];
+		samples = new double[this.domains][DomainProtocol.SAMPLE];
+		counts = new int[this.domains];
+	}
+
+	/**
+	 * Wait for a worker to join for every domain but the first
+	 */
+	public void accept(int port) throws IOException {
+		sockets = new Socket[domains];
+		in = new DataInputStream[domains];
+		out = new DataOutputStream[domains];
+		try (ServerSocket server = new ServerSocket(port)) {
+			System.out.println("Waiting for " + (domains-1) + " workers on port " + server.getLocalPort());
+			for(int d = 1; d < domains; d++){
+				Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				sockets[d] = socket;
+				in[d] = new DataInputStream(new BufferedInputStream(socket.getInputStream(), DomainProtocol.BUFFER_SIZE));
+				out[d] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), DomainProtocol.BUFFER_SIZE));
+				System.out.println("Domain " + d + " joined from " + socket.getRemoteSocketAddress());
+			}
+		}
+	}
+
+	/**
+	 * Send the settings to the workers and let every domain create its share of the random bodies
+	 * @param integrator name of the integrator of the system, see HeadlessMain
+	 */
+	public void start(int bodies, String integrator) throws IOException {
+		for(int d = 1; d < domains; d++){
+			DataOutputStream o = out[d];
+			o.writeInt(DomainProtocol.MAGIC);
+			o.writeInt(d);
+			o.writeInt(domains);
+			o.writeInt(share(bodies, d));
+			o.writeDouble(sys.getDeltaTime());
+			o.writeUTF(integrator);
+			o.writeBoolean(sys.isAdaptive());
+			o.writeBoolean(sys.isVectorized());
+			o.flush();
+		}
+		sys.setCollisions(false);
+		sys.addRandomBodies(share(bodies, 0));
+		local.collect();
+		gather();
+		balance();
+		for(int d = 0; d < domains; d++){
+			counts[d] = updated[d];
+		}
+	}
+
+	// The number of bodies domain d creates
+	private int share(int bodies, int d){
+		return bodies/domains + (d < bodies % domains ? 1 : 0);
+	}
+
+	/**
+	 * Update all the domains once, then move the bodies that left a domain to the one they are in now
+	 */
+	public void step() throws IOException {
+		for(int d = 1; d < domains; d++){
+			DataOutputStream o = out[d];
+			o.writeInt(DomainProtocol.FRAME);
+			for(double b : bounds){
+				o.writeDouble(b);
+			}
+			DomainProtocol.writeGravity(o, sys.getGravityBodies());
+			arriving[d].write(o);
+			o.flush();
+			arriving[d].clear();
+		}
+		local.setBounds(bounds, 0);
+		local.update(arriving[0]);
+		arriving[0].clear();
+		gather();
+
+		for(int d = 0; d < domains; d++){
+			bodySteps += updated[d];
+			migrated += left[d].size();
+			left[d].route(arriving, bounds);
+		}
+		int most = 0;
+		long total = 0;
+		for(int d = 0; d < domains; d++){
+			counts[d] = updated[d] - left[d].size() + arriving[d].size();
+			most = Math.max(most, counts[d]);
+			total += counts[d];
+		}
+		if(most > IMBALANCE*total/domains){
+			balance();
+			rebalanced++;
+		}
+		steps++;
+	}
+
+	// Read the reports of the last update from all domains
+	private void gather() throws IOException {
+		updated[0] = local.getUpdated();
+		sampled[0] = local.getSampled();
+		System.arraycopy(local.getSample(), 0, samples[0], 0, sampled[0]);
+		for(int d = 1; d < domains; d++){
+			DataInputStream i = in[d];
+			updated[d] = i.readInt();
+			sampled[d] = i.readInt();
+			for(int k = 0; k < sampled[d]; k++){
+				samples[d][k] = i.readDouble();
+			}
+			left[d].clear();
+			left[d].read(i);
+		}
+	}
+
+	// Move the bounds so each domain holds about the same number of bodies, estimated from the samples
+	private void balance(){
+		int n = 0;
+		for(int d = 0; d < domains; d++){
+			n += sampled[d];
+		}
+		final double[] r = new double[n];
+		double[] weight = new double[n];
+		Integer[] order = new Integer[n];
+		double total = 0.0;
+		for(int d = 0, k = 0; d < domains; d++){
+			for(int s = 0; s < sampled[d]; s++, k++){
+				r[k] = samples[d][s];
+				weight[k] = (double) updated[d]/sampled[d]; // Each sample stands for this many bodies
+				order[k] = k;
+				total += weight[k];
+			}
+		}
+		Arrays.sort(order, new Comparator<Integer>(){
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(r[a], r[b]);
+			}
+		});
+		bounds[0] = 0.0;
+		double sum = 0.0;
+		for(int d = 1, k = 0; d < domains; d++){
+			double target = total*d/domains;
+			while(k < n-1 && sum + weight[order[k]] < target){
+				sum += weight[order[k++]];
+			}
+			bounds[d] = n > 0 ? r[order[k]] : Double.POSITIVE_INFINITY;
+		}
+		bounds[domains] = Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Let the workers finish and close the connections
+	 */
+	public void stop() throws IOException {
+		for(int d = 1; d < domains; d++){
+			try {
+				out[d].writeInt(DomainProtocol.STOP);
+				out[d].flush();
+			} finally {
+				sockets[d].close();
+			}
+		}
+	}
+
+	public int getDomains(){
+		return domains;
+	}
+
+	public long getSteps(){
+		return steps;
+	}
+
+	/**
+	 * Bodies in all domains
+	 */
+	public long getBodies(){
+		long total = 0;
+		for(int c : counts){
+			total += c;
+		}
+		return total;
+	}
+
+	/**
+	 * Bodies in domain d
+	 */
+	public int getBodies(int d){
+		return counts[d];
+	}
+
+	/**
+	 * Sum of the bodies updated in every update, over all domains
+	 */
+	public long getBodySteps(){
+		return bodySteps;
+	}
+
+	/**
+	 * Bodies moved to another domain since start()
+	 */
+	public long getMigrated(){
+		return migrated;
+	}
+
+	/**
+	 * Number of times the bounds of the domains were moved since start()
+	 */
+	public int getRebalanced(){
+		return rebalanced;
+	}
+
+}
@@ -0,0 +1,127 @@
+package headless;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import javafx.scene.paint.Color;
+import model.BlackHole;
+import model.Body;
+import model.Planet;
+import model.Snapshot;
+import model.Star;
+
+/**
+ * What the coordinator and the workers of a domain decomposition send each other over their sockets.
+ *
+ * On connect the coordinator sends the settings: MAGIC, the rank and the number of domains, the number of random
+ * bodies to create, the delta time, the integrator and the adaptive and vectorized flags. The worker
+ * answers with a report. Then for every update the coordinator sends FRAME, the bounds of all domains, the gravity
+ * bodies and the bodies that moved into the domain, and the worker answers with a report after the update:
+ * the number of bodies it updated, a sample of their distances from the origin and the bodies that left its domain.
+ * STOP ends the run.
+ */
+final class DomainProtocol {
+
+	static final int MAGIC = 0x4E42444D; // "NBDM"
+	static final int FRAME = 1;
+	static final int STOP = 2;
+	static final int SAMPLE = 256; // Distances sampled per domain and update, to balance the domains
+	static final int BUFFER_SIZE = 1 << 16;
+
+	private DomainProtocol(){
+	}
+
+	/**
+	 * The domain holding the bodies at distance r from the origin
+	 * @param bounds domain d holds the bodies at a distance in [bounds[d], bounds[d+1])
+	 */
+	static int owner(double[] bounds, double r){
+		int lo = 0, hi = bounds.length-2;
+		while(lo < hi){
+			int mid = (lo + hi + 1) >>> 1;
+			if(r >= bounds[mid]){
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return lo;
+	}
+
+	static void writeGravity(DataOutputStream out, ArrayList<Body> bodies) throws IOException {
+		out.writeInt(bodies.size());
+		for(Body b : bodies){
+			out.writeInt(kindOf(b));
+			out.writeDouble(b.rx);
+			out.writeDouble(b.ry);
+			out.writeDouble(b.vx);
+			out.writeDouble(b.vy);
+			out.writeDouble(b.mass);
+			writeColor(out, b.color);
+			out.writeInt(b.impacts);
+		}
+	}
+
+	/**
+	 * Replace the state of the gravity bodies with the one written by writeGravity(). The bodies are only
+	 * created again when they no longer match, e.g. after two of them collided.
+	 */
+	static void readGravity(DataInputStream in, ArrayList<Body> bodies) throws IOException {
+		int n = in.readInt();
+		for(int j = 0; j < n; j++){
+			int kind = in.readInt();
+			double x = in.readDouble(), y = in.readDouble(), u = in.readDouble(), v = in.readDouble(), m = in.readDouble();
+			Color color = readColor(in);
+			int impacts = in.readInt();
+			Body b;
+			if(j < bodies.size() && kindOf(bodies.get(j)) == kind){
+				b = bodies.get(j);
+				b.rx = x;
+				b.ry = y;
+				b.vx = u;
+				b.vy = v;
+				b.mass = m;
+			} else {
+				switch(kind){
+				case Snapshot.STAR:
+					b = new Star(x, y, u, v, m, color);
+					break;
+				case Snapshot.BLACK_HOLE:
+					b = new BlackHole(x, y, u, v, m, color);
+					break;
+				default:
+					b = new Planet(x, y, u, v, m, color);
+					break;
+				}
+				if(j < bodies.size()){
+					bodies.set(j, b);
+				} else {
+					bodies.add(b);
+				}
+			}
+			b.color = color;
+			b.impacts = impacts;
+		}
+		while(bodies.size() > n){
+			bodies.remove(bodies.size()-1);
+		}
+	}
+
+	private static int kindOf(Body b){
+		return b instanceof Star ? Snapshot.STAR : b instanceof BlackHole ? Snapshot.BLACK_HOLE : Snapshot.PLANET;
+	}
+
+	static void writeColor(DataOutputStream out, Color c) throws IOException {
+		out.writeDouble(c.getRed());
+		out.writeDouble(c.getGreen());
+		out.writeDouble(c.getBlue());
+		out.writeDouble(c.getOpacity());
+	}
+
+	static Color readColor(DataInputStream in) throws IOException {
+		return new Color(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+	}
+
+}
@@ -0,0 +1,72 @@
+package headless;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+import model.BodySystem;
+
+/**
+ * A process updating one domain for a DomainCoordinator, possibly on another host. The coordinator sends the
+ * settings, so only the number of threads is chosen by the worker.
+ */
+public class DomainWorker {
+
+	private final BodySystem sys;
+
+	public DomainWorker(BodySystem sys){
+		this.sys = sys;
+	}
+
+	/**
+	 * Join the coordinator and update its domain until the coordinator stops
+	 * @return the number of updates done
+	 */
+	public long run(String host, int port) throws IOException {
+		try (Socket socket = new Socket(host, port)) {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), DomainProtocol.BUFFER_SIZE));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), DomainProtocol.BUFFER_SIZE));
+			if(in.readInt() != DomainProtocol.MAGIC){
+				throw new IOException("Not a domain coordinator: " + host + ":" + port);
+			}
+			int rank = in.readInt();
+			int domains = in.readInt();
+			int bodies = in.readInt();
+			sys.setDeltaTime(in.readDouble());
+			String integrator = in.readUTF();
+			sys.setIntegrator(HeadlessMain.getIntegrator(integrator));
+			sys.setAdaptive(in.readBoolean());
+			sys.setVectorized(in.readBoolean());
+			sys.addRandomBodies(bodies);
+			System.out.println("Domain " + rank + " of " + domains + " - Bodies: " + sys.getStore().size() + " - Threads: " + sys.getThreadCount() + " - Integrator: " + integrator);
+
+			Domain domain = new Domain(sys);
+			domain.collect();
+			domain.writeReport(out);
+			out.flush();
+
+			double[] bounds = new double[domains+1];
+			Migrants arriving = new Migrants();
+			long steps = 0;
+			while(in.readInt() == DomainProtocol.FRAME){
+				for(int d = 0; d <= domains; d++){
+					bounds[d] = in.readDouble();
+				}
+				domain.setBounds(bounds, rank);
+				DomainProtocol.readGravity(in, sys.getGravityBodies());
+				arriving.clear();
+				arriving.read(in);
+				domain.update(arriving);
+				domain.writeReport(out);
+				out.flush();
+				steps++;
+			}
+			return steps;
+		}
+	}
+
+}
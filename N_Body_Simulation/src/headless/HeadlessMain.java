@@ -0,0 +1,268 @@
+package headless;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import model.BarnesHutGravity;
+import model.BodySystem;
+import model.EulerIntegrator;
+import model.FastMultipoleGravity;
+import model.GravityEngine;
+import model.Integrator;
+import model.LeapfrogIntegrator;
+import model.ParticleMeshGravity;
+import model.SimulationRunner;
+import model.TrajectoryRecorder;
+import model.YoshidaIntegrator;
+
+/**
+ * Runs the simulation without a GUI as fast as possible and reports the throughput.
+ *
+ * Usage: HeadlessMain [-n bodies] [-steps n] [-dt seconds] [-threads n] [-integrator euler|leapfrog|yoshida]
+ *                     [-engine none|bh|fmm|pm] [-theta t] [-order p] [-grid n] [-fixed] [-scalar] [-collisions] [-merge distance] [-comets] [-real] [-stream]
+ *                     [-load checkpoint] [-save checkpoint] [-record file] [-every updates] [-stride bodies]
+ *                     [-domains n] [-port port] [-join host:port]
+ *
+ * With -domains the massless bodies are spread over n processes: this one waits on the port for n-1 workers,
+ * started with -join and the host and port of this one. See DomainCoordinator.
+ */
+public class HeadlessMain {
+
+	public static void main(String[] args) {
+		int n = 10000;
+		long steps = 1000;
+		double dt = 1e13;
+		int threads = BodySystem.DEFAULT_THREADCOUNT;
+		String integrator = "leapfrog";
+		String engine = "none";
+		double theta = BarnesHutGravity.DEFAULT_THETA;
+		int order = FastMultipoleGravity.DEFAULT_ORDER;
+		int grid = ParticleMeshGravity.DEFAULT_GRID;
+		boolean adaptive = true, vectorized = true, collisions = false, comets = false, real = false, stream = false;
+		double merge = 0.0; // Distance below which small bodies merge, 0 = no small body collisions
+		String load = null, save = null; // Checkpoint files to start from and to write at the end
+		String record = null; // Trajectory file
+		int every = 10, stride = 1;
+		int domains = 1, port = DomainCoordinator.DEFAULT_PORT;
+		String join = null; // host:port of the coordinator to work for
+
+		try {
+			for(int i = 0; i < args.length; i++){
+				switch(args[i]){
+				case "-n": n = Integer.parseInt(args[++i]); break;
+				case "-steps": steps = Long.parseLong(args[++i]); break;
+				case "-dt": dt = Double.parseDouble(args[++i]); break;
+				case "-threads": threads = Integer.parseInt(args[++i]); break;
+				case "-integrator": integrator = args[++i]; break;
+				case "-engine": engine = args[++i]; break;
+				case "-theta": theta = Double.parseDouble(args[++i]); break;
+				case "-order": order = Integer.parseInt(args[++i]); break;
+				case "-grid": grid = Integer.parseInt(args[++i]); break;
+				case "-fixed": adaptive = false; break;
+				case "-scalar": vectorized = false; break;
+				case "-collisions": collisions = true; break;
+				case "-merge": merge = Double.parseDouble(args[++i]); break;
+				case "-comets": comets = true; break;
+				case "-real": real = true; break;
+				case "-stream": real = true; stream = true; break;
+				case "-load": load = args[++i]; break;
+				case "-save": save = args[++i]; break;
+				case "-record": record = args[++i]; break;
+				case "-every": every = Integer.parseInt(args[++i]); break;
+				case "-stride": stride = Integer.parseInt(args[++i]); break;
+				case "-domains": domains = Integer.parseInt(args[++i]); break;
+				case "-port": port = Integer.parseInt(args[++i]); break;
+				case "-join": join = args[++i]; break;
+				default:
+					usage("Unknown option: " + args[i]);
+					return;
+				}
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e){
+			usage("Invalid arguments");
+			return;
+		}
+
+		if(join != null){
+			work(join, threads);
+			return;
+		}
+		if(domains > 1 && (!engine.equalsIgnoreCase("none") || collisions || merge > 0 || real || load != null || save != null || record != null)){
+			usage("-domains only runs random massless bodies, without -engine, -collisions, -merge, -real, -stream, -load, -save or -record");
+			return;
+		}
+
+		BodySystem sys = new BodySystem(threads);
+		sys.setDeltaTime(dt);
+		sys.setIntegrator(getIntegrator(integrator));
+		sys.setGravityEngine(getEngine(engine, theta, order, grid, sys));
+		sys.setAdaptive(adaptive);
+		sys.setVectorized(vectorized);
+		sys.setCollisions(collisions);
+		if(merge > 0){
+			sys.setMergeBodies(true);
+			sys.setMergeDistance(merge);
+		}
+		sys.setShowComets(comets);
+		sys.getMetrics().register();
+		if(domains > 1){
+			coordinate(sys, domains, port, n, steps, integrator);
+			sys.shutdown();
+			return;
+		}
+		if(load != null){
+			try {
+				long start = System.nanoTime();
+				sys.loadCheckpoint(Paths.get(load));
+				System.out.println(String.format("Checkpoint %s loaded in %.1f ms", load, (System.nanoTime()-start)/1e6));
+			} catch (IOException e){
+				System.err.println("Could not load checkpoint: " + e.getMessage());
+				sys.shutdown();
+				return;
+			}
+		} else if(stream){
+			sys.streamKnownBodies(n);
+		} else if(real){
+			sys.addKnownBodies(n);
+		} else {
+			sys.addRandomBodies(n);
+		}
+		int bodies = sys.getStore().size();
+		System.out.println("Bodies: " + bodies + " - Threads: " + sys.getThreadCount() + " - Integrator: " + integrator + " - Engine: " + engine + " - dt: " + sys.getDeltaTime());
+
+		SimulationRunner runner = new SimulationRunner(sys);
+		runner.setMaxSteps(steps);
+		final long reportEvery = Math.max(1, steps/10);
+		runner.addListener(new SimulationRunner.Listener(){
+			@Override
+			public void updated(BodySystem s, long step) {
+				if(step % reportEvery == 0){
+					String loading = s.getKnownBodiesLoaded() < s.getKnownBodiesRequested() ? " - Loading: " + s.getKnownBodiesLoaded() + "/" + s.getKnownBodiesRequested() : "";
+					System.out.println("Step " + step + " - Bodies: " + s.getStore().size() + loading);
+				}
+			}
+		});
+		TrajectoryRecorder recorder = null;
+		if(record != null){
+			try {
+				recorder = new TrajectoryRecorder(Paths.get(record), every, stride, 0, Integer.MAX_VALUE);
+				runner.addListener(recorder);
+			} catch (IOException e){
+				System.err.println("Could not record trajectories: " + e.getMessage());
+			}
+		}
+		runner.start();
+		runner.await();
+		if(recorder != null){
+			try {
+				recorder.close();
+				System.out.println("Trajectory samples: " + recorder.getRecorded() + " recorded, " + recorder.getDropped() + " dropped");
+			} catch (IOException e){
+				System.err.println("Could not record trajectories: " + e.getMessage());
+			}
+		}
+
+		double seconds = runner.getElapsedNanos()/1e9;
+		System.out.println(String.format("%d steps in %.3f s: %.1f steps/s, %.3e body-steps/s, %.3f ms/step",
+				runner.getSteps(), seconds, runner.getThroughput(), runner.getThroughput()*bodies, seconds*1000/runner.getSteps()));
+		System.out.println("Bodies left: " + sys.getStore().size());
+		System.out.print(sys.getMetrics().summary());
+		if(save != null){
+			try {
+				long start = System.nanoTime();
+				sys.saveCheckpoint(Paths.get(save));
+				System.out.println(String.format("Checkpoint %s saved in %.1f ms", save, (System.nanoTime()-start)/1e6));
+			} catch (IOException e){
+				System.err.println("Could not save checkpoint: " + e.getMessage());
+			}
+		}
+		sys.shutdown();
+	}
+
+	// Run the updates of the domains, this process updating the first one
+	private static void coordinate(BodySystem sys, int domains, int port, int n, long steps, String integrator){
+		DomainCoordinator coordinator = new DomainCoordinator(sys, domains);
+		try {
+			coordinator.accept(port);
+			coordinator.start(n, integrator);
+			System.out.println("Bodies: " + coordinator.getBodies() + " - Domains: " + domains + " - Threads: " + sys.getThreadCount() + " - Integrator: " + integrator + " - dt: " + sys.getDeltaTime());
+			long reportEvery = Math.max(1, steps/10);
+			long start = System.nanoTime();
+			for(long step = 1; step <= steps; step++){
+				coordinator.step();
+				if(step % reportEvery == 0){
+					StringBuilder split = new StringBuilder();
+					for(int d = 0; d < domains; d++){
+						split.append(d == 0 ? "" : "/").append(coordinator.getBodies(d));
+					}
+					System.out.println("Step " + step + " - Bodies: " + coordinator.getBodies() + " (" + split + ") - Migrated: " + coordinator.getMigrated() + " - Rebalanced: " + coordinator.getRebalanced());
+				}
+			}
+			double seconds = (System.nanoTime() - start)/1e9;
+			coordinator.stop();
+			System.out.println(String.format("%d steps in %.3f s: %.1f steps/s, %.3e body-steps/s, %.3f ms/step",
+					coordinator.getSteps(), seconds, coordinator.getSteps()/seconds, coordinator.getBodySteps()/seconds, seconds*1000/coordinator.getSteps()));
+			System.out.println("Bodies left: " + coordinator.getBodies());
+			System.out.print(sys.getMetrics().summary());
+		} catch (IOException e){
+			System.err.println("Domain decomposition failed: " + e.getMessage());
+		}
+	}
+
+	// Update a domain for the coordinator at host:port
+	private static void work(String address, int threads){
+		int colon = address.lastIndexOf(':');
+		String host = colon < 0 ? address : address.substring(0, colon);
+		int port;
+		try {
+			port = colon < 0 ? DomainCoordinator.DEFAULT_PORT : Integer.parseInt(address.substring(colon+1));
+		} catch (NumberFormatException e){
+			usage("Invalid address: " + address);
+			return;
+		}
+		BodySystem sys = new BodySystem(threads);
+		try {
+			long steps = new DomainWorker(sys).run(host, port);
+			System.out.println(steps + " steps - Bodies left: " + sys.getStore().size());
+		} catch (IOException e){
+			System.err.println("Domain worker failed: " + e.getMessage());
+		} finally {
+			sys.shutdown();
+		}
+	}
+
+	static Integrator getIntegrator(String name){
+		switch(name.toLowerCase()){
+		case "euler":
+			return new EulerIntegrator();
+		case "yoshida":
+			return new YoshidaIntegrator();
+		case "leapfrog":
+		default:
+			return new LeapfrogIntegrator();
+		}
+	}
+
+	private static GravityEngine getEngine(String name, double theta, int order, int grid, BodySystem sys){
+		switch(name.toLowerCase()){
+		case "bh":
+			return new BarnesHutGravity(theta);
+		case "fmm":
+			return new FastMultipoleGravity(order, theta);
+		case "pm":
+			return new ParticleMeshGravity(grid, sys.getExecutor());
+		case "none":
+		default:
+			return null;
+		}
+	}
+
+	private static void usage(String error){
+		System.err.println(error);
+		System.err.println("Usage: HeadlessMain [-n bodies] [-steps n] [-dt seconds] [-threads n] [-integrator euler|leapfrog|yoshida]");
+		System.err.println("                    [-engine none|bh|fmm|pm] [-theta t] [-order p] [-grid n] [-fixed] [-scalar] [-collisions] [-merge distance] [-comets] [-real] [-stream]");
+		System.err.println("                    [-load checkpoint] [-save checkpoint] [-record file] [-every updates] [-stride bodies]");
+		System.err.println("                    [-domains n] [-port port] [-join host:port]");
+	}
+
+}
@@ -0,0 +1,131 @@
+package headless;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javafx.scene.paint.Color;
+import model.BodyStore;
+
+/**
+ * Non gravity bodies on their way from one domain to another, column by column like the BodyStore.
+ * The colors are kept as indexes in a palette of their own, which is sent along with the bodies.
+ */
+class Migrants {
+
+	private double[] rx, ry, vx, vy, mass;
+	private int[] flags;             // type | palette index << 8
+	private ArrayList<Color> palette;
+	private int size;
+
+	Migrants(){
+		rx = ry = vx = vy = mass = new double[0];
+		flags = new int[0];
+		palette = new ArrayList<Color>();
+	}
+
+	int size(){
+		return size;
+	}
+
+	void clear(){
+		size = 0;
+	}
+
+	/**
+	 * Copy body i of the store
+	 */
+	void add(BodyStore store, int i){
+		add(store.rx(i), store.ry(i), store.vx(i), store.vy(i), store.mass(i), store.type(i), store.color(i));
+	}
+
+	void add(double rx, double ry, double vx, double vy, double mass, int type, Color color){
+		int index = palette.indexOf(color);
+		if(index < 0){
+			palette.add(color);
+			index = palette.size()-1;
+		}
+		add(rx, ry, vx, vy, mass, type | index << 8);
+	}
+
+	private void add(double rx, double ry, double vx, double vy, double mass, int flags){
+		if(size == this.rx.length){
+			int n = Math.max(64, size + (size >> 1));
+			this.rx = Arrays.copyOf(this.rx, n);
+			this.ry = Arrays.copyOf(this.ry, n);
+			this.vx = Arrays.copyOf(this.vx, n);
+			this.vy = Arrays.copyOf(this.vy, n);
+			this.mass = Arrays.copyOf(this.mass, n);
+			this.flags = Arrays.copyOf(this.flags, n);
+		}
+		this.rx[size] = rx;
+		this.ry[size] = ry;
+		this.vx[size] = vx;
+		this.vy[size] = vy;
+		this.mass[size] = mass;
+		this.flags[size] = flags;
+		size++;
+	}
+
+	/**
+	 * Add all the bodies to the store
+	 */
+	void addTo(BodyStore store){
+		for(int i = 0; i < size; i++){
+			store.add(rx[i], ry[i], vx[i], vy[i], mass[i], flags[i] & 0xFF, palette.get(flags[i] >>> 8));
+		}
+	}
+
+	/**
+	 * Add every body to the migrants of the domain it is in now
+	 * @param bounds domain d holds the bodies at a distance from the origin in [bounds[d], bounds[d+1])
+	 */
+	void route(Migrants[] domains, double[] bounds){
+		for(int i = 0; i < size; i++){
+			int d = DomainProtocol.owner(bounds, Math.sqrt(rx[i]*rx[i] + ry[i]*ry[i]));
+			domains[d].add(rx[i], ry[i], vx[i], vy[i], mass[i], flags[i] & 0xFF, palette.get(flags[i] >>> 8));
+		}
+	}
+
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(palette.size());
+		for(Color c : palette){
+			DomainProtocol.writeColor(out, c);
+		}
+		out.writeInt(size);
+		for(int i = 0; i < size; i++){
+			out.writeDouble(rx[i]);
+			out.writeDouble(ry[i]);
+			out.writeDouble(vx[i]);
+			out.writeDouble(vy[i]);
+			out.writeDouble(mass[i]);
+			out.writeInt(flags[i]);
+		}
+	}
+
+	/**
+	 * Add the bodies written by write()
+	 */
+	void read(DataInputStream in) throws IOException {
+		int colors = in.readInt();
+		int[] map = new int[colors];
+		for(int k = 0; k < colors; k++){
+			Color c = DomainProtocol.readColor(in);
+			int index = palette.indexOf(c);
+			if(index < 0){
+				palette.add(c);
+				index = palette.size()-1;
+			}
+			map[k] = index;
+		}
+		int n = in.readInt();
+		for(int i = 0; i < n; i++){
+			double x = in.readDouble(), y = in.readDouble(), u = in.readDouble(), v = in.readDouble(), m = in.readDouble();
+			int f = in.readInt();
+			add(x, y, u, v, m, f & 0xFF | map[f >>> 8] << 8);
+		}
+	}
+
+}
@@ -0,0 +1,273 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Barnes-Hut approximation of the mutual gravity between all bodies in the store. A quadtree is rebuilt
+ * every update, and groups of bodies far enough away are treated as a single body at their center of mass.
+ * The opening angle theta trades accuracy for speed: 0 is an exact (and slow) direct sum.
+ */
+public class BarnesHutGravity implements GravityEngine {
+
+	public static final double DEFAULT_THETA = 0.5;
+
+	private static final double EPS = 3E4;      // softening parameter (just to avoid infinities)
+	private static final int MAX_DEPTH = 48;    // Bodies closer than this are kept together in one leaf
+
+	private double theta;
+
+	// The quadtree nodes. Children are allocated 4 at a time: child q of node n is firstChild[n]+q
+	private double[] cx, cy, half;   // center and half the side length of each node
+	private double[] mass, comx, comy; // total mass and center of mass of each node
+	private int[] firstChild;        // -1 for leaves
+	private int[] head;              // first body of a leaf, -1 for empty leaves
+	private int nodes;
+
+	// Copies of the bodies taken in prepare(), so the workers can update the store while the tree is used
+	private double[] px, py, pm;
+	private int[] next;              // next body in the same leaf, -1 at the end
+
+	private final ThreadLocal<int[]> stacks = new ThreadLocal<int[]>(){
+		@Override
+		protected int[] initialValue() {
+			return new int[4*MAX_DEPTH + 8];
+		}
+	};
+	private final ThreadLocal<double[]> accelerations = new ThreadLocal<double[]>(){
+		@Override
+		protected double[] initialValue() {
+			return new double[2];
+		}
+	};
+
+	public BarnesHutGravity(){
+		this(DEFAULT_THETA);
+	}
+
+	public BarnesHutGravity(double theta){
+		setTheta(theta);
+		allocateNodes(1024);
+		px = new double[0];
+		py = new double[0];
+		pm = new double[0];
+		next = new int[0];
+	}
+
+	public double getTheta(){
+		return theta;
+	}
+
+	public void setTheta(double theta){
+		if(theta < 0){
+			theta = 0;
+		}
+		this.theta = theta;
+	}
+
+	@Override
+	public void prepare(BodyStore store) {
+		int n = store.size();
+		if(px.length < n){
+			px = new double[n];
+			py = new double[n];
+			pm = new double[n];
+			next = new int[n];
+		}
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for(int i = 0; i < n; i++){
+			px[i] = store.rx(i);
+			py[i] = store.ry(i);
+			pm[i] = store.isRemoved(i) ? 0.0 : store.mass(i);
+			next[i] = -1;
+			if(px[i] < minX) minX = px[i];
+			if(px[i] > maxX) maxX = px[i];
+			if(py[i] < minY) minY = py[i];
+			if(py[i] > maxY) maxY = py[i];
+		}
+
+		// Root node covering all the bodies
+		nodes = 0;
+		int root = newNode();
+		if(n == 0){
+			return;
+		}
+		cx[root] = (minX + maxX)/2;
+		cy[root] = (minY + maxY)/2;
+		half[root] = Math.max(maxX - minX, maxY - minY)/2 * 1.0001 + 1.0;
+
+		for(int i = 0; i < n; i++){
+			if(pm[i] > 0.0){
+				insert(i);
+			}
+		}
+	}
+
+	private void insert(int i){
+		double x = px[i], y = py[i], m = pm[i];
+		int node = 0;
+		int depth = 0;
+		while(true){
+			if(firstChild[node] >= 0){
+				// Internal node: add the body and go down to the right quadrant
+				addMass(node, x, y, m);
+				node = firstChild[node] + quadrant(node, x, y);
+				depth++;
+			} else if(head[node] < 0){
+				// Empty leaf
+				head[node] = i;
+				mass[node] = m;
+				comx[node] = x;
+				comy[node] = y;
+				return;
+			} else if(depth >= MAX_DEPTH){
+				// (Almost) the same position, keep the bodies together in this leaf
+				addMass(node, x, y, m);
+				next[i] = head[node];
+				head[node] = i;
+				return;
+			} else {
+				// Occupied leaf: split it and move the bodies already there one level down
+				int first = split(node);
+				int b = head[node];
+				int q = first + quadrant(node, px[b], py[b]);
+				head[q] = b;
+				mass[q] = mass[node];
+				comx[q] = comx[node];
+				comy[q] = comy[node];
+				head[node] = -1;
+			}
+		}
+	}
+
+	private void addMass(int node, double x, double y, double m){
+		double total = mass[node] + m;
+		comx[node] = (comx[node]*mass[node] + x*m)/total;
+		comy[node] = (comy[node]*mass[node] + y*m)/total;
+		mass[node] = total;
+	}
+
+	private int quadrant(int node, double x, double y){
+		return (x >= cx[node] ? 1 : 0) + (y >= cy[node] ? 2 : 0);
+	}
+
+	private int split(int node){
+		int first = nodes;
+		double h = half[node]/2;
+		for(int q = 0; q < 4; q++){
+			int c = newNode();
+			cx[c] = cx[node] + ((q & 1) != 0 ? h : -h);
+			cy[c] = cy[node] + ((q & 2) != 0 ? h : -h);
+			half[c] = h;
+		}
+		firstChild[node] = first;
+		return first;
+	}
+
+	private int newNode(){
+		if(nodes == cx.length){
+			allocateNodes(cx.length*2);
+		}
+		int n = nodes++;
+		firstChild[n] = -1;
+		head[n] = -1;
+		mass[n] = 0.0;
+		comx[n] = 0.0;
+		comy[n] = 0.0;
+		return n;
+	}
+
+	private void allocateNodes(int capacity){
+		if(cx == null){
+			cx = new double[capacity];
+			cy = new double[capacity];
+			half = new double[capacity];
+			mass = new double[capacity];
+			comx = new double[capacity];
+			comy = new double[capacity];
+			firstChild = new int[capacity];
+			head = new int[capacity];
+			return;
+		}
+		cx = Arrays.copyOf(cx, capacity);
+		cy = Arrays.copyOf(cy, capacity);
+		half = Arrays.copyOf(half, capacity);
+		mass = Arrays.copyOf(mass, capacity);
+		comx = Arrays.copyOf(comx, capacity);
+		comy = Arrays.copyOf(comy, capacity);
+		firstChild = Arrays.copyOf(firstChild, capacity);
+		head = Arrays.copyOf(head, capacity);
+	}
+
+	@Override
+	public void addForce(BodyStore store, int i) {
+		double m = store.mass(i);
+		double[] f = walk(store.rx(i), store.ry(i), i);
+		store.setForce(i, store.fx(i) + m*f[0], store.fy(i) + m*f[1]);
+	}
+
+	@Override
+	public void addForce(Body b) {
+		double[] f = walk(b.rx, b.ry, -1);
+		b.fx += b.mass*f[0];
+		b.fy += b.mass*f[1];
+	}
+
+	/**
+	 * Walk the tree and sum up the acceleration at (x, y), ignoring the body self.
+	 * The result is returned in a per thread array that is reused by the next walk.
+	 */
+	private double[] walk(double x, double y, int self){
+		int[] stack = stacks.get();
+		double[] acc = accelerations.get();
+		double ax = 0.0, ay = 0.0;
+		double theta2 = theta*theta;
+		int top = 0;
+		if(nodes > 0 && mass[0] > 0.0){
+			stack[top++] = 0;
+		}
+		while(top > 0){
+			int node = stack[--top];
+			double dx = comx[node] - x;
+			double dy = comy[node] - y;
+			double dist2 = dx*dx + dy*dy;
+			double size = 2*half[node];
+			boolean inside = Math.abs(x - cx[node]) <= half[node] && Math.abs(y - cy[node]) <= half[node];
+			if(!inside && size*size < theta2*dist2){
+				// Far enough away to use the center of mass
+				double dist = Math.sqrt(dist2);
+				double a = (BodySystem.G * mass[node]) / (dist2 + EPS*EPS);
+				ax += a * dx / dist;
+				ay += a * dy / dist;
+			} else if(firstChild[node] >= 0){
+				for(int q = 0; q < 4; q++){
+					int c = firstChild[node] + q;
+					if(mass[c] > 0.0){
+						stack[top++] = c;
+					}
+				}
+			} else {
+				// Leaf close by: sum up its bodies directly
+				for(int b = head[node]; b >= 0; b = next[b]){
+					if(b == self){
+						continue;
+					}
+					double bx = px[b] - x;
+					double by = py[b] - y;
+					double d2 = bx*bx + by*by;
+					if(d2 == 0.0){
+						continue;
+					}
+					double d = Math.sqrt(d2);
+					double a = (BodySystem.G * pm[b]) / (d2 + EPS*EPS);
+					ax += a * bx / d;
+					ay += a * by / d;
+				}
+			}
+		}
+		acc[0] = ax;
+		acc[1] = ay;
+		return acc;
+	}
+
+}
@@ -4,6 +4,10 @@ import javafx.scene.paint.Color;
 
 public class BlackHole extends Body{
 
+	public BlackHole(double rx, double ry, double vx, double vy, double mass, Color color) {
+		super(rx, ry, vx, vy, mass, color);
+	}
+
 	public BlackHole(double dist, double mass, Color color) {
 		super(dist, mass, color);	
 	}
@@ -0,0 +1,157 @@
+package model;
+
+/**
+ * Advances a block of massless bodies together through the gravity field, one gravity body at a time.
+ * The inner loops run over the bodies of the block in plain primitive arrays with no branches, so the
+ * JIT compiler can turn them into SIMD instructions (several bodies per vector register).
+ * Only for bodies without substeps (level 0). Each worker has its own block.
+ *
+ * A block is a run of consecutive bodies of the store, copied in and out in bulk. The bodies of the run that
+ * are removed or take substeps are skipped: they go through the loops with a weight of 0, which leaves them
+ * as they were.
+ */
+public class BlockKernel {
+
+	public static final int SIZE = 256; // Bodies per block
+
+	private static final double EPS2 = 3E4*3E4; // softening parameter squared (just to avoid infinities)
+
+	private int from;                            // index of the first body in the store
+	private final double[] x = new double[SIZE], y = new double[SIZE];
+	private final double[] vx = new double[SIZE], vy = new double[SIZE];
+	private final double[] ax = new double[SIZE], ay = new double[SIZE];
+	private final double[] fx = new double[SIZE], fy = new double[SIZE];
+	private final double[] mass = new double[SIZE];
+	private final double[] weight = new double[SIZE];  // 1 for the bodies advanced here, 0 for the others
+	private final int[] level = new int[SIZE];         // Substep level of the skipped bodies
+	private final double[] nearest = new double[SIZE]; // Smallest squared distance to a gravity body
+	private final boolean[] collided = new boolean[SIZE]; // Collided, removed or skipped: not checked for collisions
+	private int size;
+
+	/**
+	 * Load the bodies from..to-1 of the store, at most SIZE and all in the same chunk of the store.
+	 * The removed bodies are skipped.
+	 */
+	public void load(BodyStore store, int from, int to){
+		int n = to - from;
+		this.from = from;
+		this.size = n;
+		store.getPositions(from, n, x, y);
+		store.getVelocities(from, n, vx, vy);
+		store.getMasses(from, n, mass);
+		for(int k = 0; k < n; k++){
+			boolean removed = store.isRemoved(from + k);
+			weight[k] = removed ? 0.0 : 1.0;
+			level[k] = 0;
+			collided[k] = removed;
+		}
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public double x(int k){
+		return x[k];
+	}
+
+	public double y(int k){
+		return y[k];
+	}
+
+	/**
+	 * Leave body k of the block to be advanced in substeps, after advance()
+	 */
+	public void skip(int k, int level){
+		weight[k] = 0.0;
+		this.level[k] = level;
+		collided[k] = true;
+	}
+
+	/**
+	 * The substep level body k was skipped with, 0 if it was not
+	 */
+	public int level(int k){
+		return level[k];
+	}
+
+	/**
+	 * Advance the bodies in the block one update of length dt and write them back to the store.
+	 * Bodies that collide with a gravity body are marked as removed and recorded in the given slot of events.
+	 */
+	public void advance(BodyStore store, GravityField field, Integrator integrator, double dt, double collision2,
+			CollisionBuffer events, int slot){
+		double[] drifts = integrator.getDrifts();
+		double[] kicks = integrator.getKicks();
+		int stages = kicks.length;
+		int n = size;
+		int count = field.count;
+		double[] gm = field.gm, gx = field.rx, gy = field.ry;
+
+		for(int s = 0; s < stages; s++){
+			double c = drifts[s]*dt;
+			for(int k = 0; k < n; k++){
+				x[k] += c*weight[k]*vx[k];
+				y[k] += c*weight[k]*vy[k];
+				ax[k] = 0.0;
+				ay[k] = 0.0;
+				nearest[k] = Double.MAX_VALUE;
+			}
+			int base = field.point(0, 0, s)*count;
+			for(int j = 0; j < count; j++){
+				double px = gx[base+j], py = gy[base+j], g = gm[j];
+				for(int k = 0; k < n; k++){
+					double dx = px - x[k];
+					double dy = py - y[k];
+					double dist2 = dx*dx + dy*dy;
+					double a = g / ((dist2 + EPS2) * Math.sqrt(dist2));
+					ax[k] += a * dx;
+					ay[k] += a * dy;
+					nearest[k] = Math.min(nearest[k], dist2);
+				}
+			}
+			double d = kicks[s]*dt;
+			for(int k = 0; k < n; k++){
+				vx[k] += d*weight[k]*ax[k];
+				vy[k] += d*weight[k]*ay[k];
+			}
+			// Collisions are rare, so they are checked once per stage outside the vector loops
+			for(int k = 0; k < n; k++){
+				if(nearest[k] < collision2 && !collided[k]){
+					collide(store, field, k, base, collision2, events, slot);
+				}
+			}
+		}
+		double c = drifts[stages]*dt;
+		for(int k = 0; k < n; k++){
+			x[k] += c*weight[k]*vx[k];
+			y[k] += c*weight[k]*vy[k];
+		}
+
+		// The skipped bodies are written back unchanged, their forces are set when they are advanced
+		for(int k = 0; k < n; k++){
+			fx[k] = mass[k]*ax[k];
+			fy[k] = mass[k]*ay[k];
+		}
+		store.setPositions(from, n, x, y);
+		store.setVelocities(from, n, vx, vy);
+		store.setForces(from, n, fx, fy);
+	}
+
+	// Record body k as collided with the first gravity body in range, like the scalar kernel does
+	private void collide(BodyStore store, GravityField field, int k, int base, double collision2,
+			CollisionBuffer events, int slot){
+		int i = from + k;
+		for(int j = 0; j < field.count; j++){
+			double dx = field.rx[base+j] - x[k];
+			double dy = field.ry[base+j] - y[k];
+			if(dx*dx + dy*dy < collision2){
+				events.add(slot, i, j);
+				break;
+			}
+		}
+		store.markRemoved(i);
+		collided[k] = true;
+	}
+
+}
@@ -69,34 +69,51 @@ public abstract class Body {
 	}	
 
 	public void addBodyMass(Body b){
+		addBodyMass(b != null ? b.mass : 0.0);
+	}
+
+	public void addBodyMass(double m){
 		// Adjust the size & color according to the bodys mass
-		if(b!=null){
-			mass += b.mass;			
+		mass += m;
+		diameter = diameterOf(mass);
+		if (mass >= BodySystem.solarmass/10){
+			color = Color.DARKORANGE;
 		}
-		diameter = (int) (Math.pow((((mass)/BodySystem.solarmass)/3.14)*(3.0/4.0), 1.0/3.0)*1500);
+		impacts++;
+	}
+
+	// diameter in pixels of a body with the given mass
+	public static int diameterOf(double mass){
+		int diameter = (int) (Math.pow((((mass)/BodySystem.solarmass)/3.14)*(3.0/4.0), 1.0/3.0)*1500);
 		if(diameter < 1){
 			diameter = 1;	    	
 		}
 		if (mass >= BodySystem.solarmass/10){
-			color = Color.DARKORANGE;
 			diameter = diameter/30;
 		} else if (mass > BodySystem.earthmass*5){
 			diameter = diameter/5;
 		}
-		if(this instanceof BlackHole){
-			diameter = diameter;
-		}
-		impacts++;
+		return diameter;
 	}
 
 	// update the velocity and position using a timestep dt
 	public void update(double dt) {
-		vx += dt * fx / mass;
-		vy += dt * fy / mass;
+		kick(dt);
+		drift(dt);
+	}
+
+	// move the body with its current velocity for a time dt
+	public void drift(double dt) {
 		rx += dt * vx;
 		ry += dt * vy;
 	}
 
+	// change the velocity with the current force for a time dt
+	public void kick(double dt) {
+		vx += dt * fx / mass;
+		vy += dt * fy / mass;
+	}
+
 	// returns the distance between two bodies
 	public double distanceTo(Body b) {
 		double dx = rx - b.rx;
@@ -123,10 +140,10 @@ public abstract class Body {
 		double EPS = 3E4;      // softening parameter (just to avoid infinities)
 		double dx = b.rx - rx;
 		double dy = b.ry - ry;
-		double dist = Math.sqrt(dx*dx + dy*dy);
-		double F = (BodySystem.G * mass * b.mass) / (dist*dist + EPS*EPS);
-		fx += F * dx / dist;
-		fy += F * dy / dist;
+		double dist2 = dx*dx + dy*dy;
+		double F = (BodySystem.G * mass * b.mass) / ((dist2 + EPS*EPS) * Math.sqrt(dist2)); // Includes the 1/dist of the direction
+		fx += F * dx;
+		fy += F * dy;
 //		if(mass < BodySystem.earthmass){
 //			Body c = new Asteroid(0, 0, Color.WHITE);
 //			System.out.println("Distance: " + this.distanceTo(c)/BodySystem.earthDistance);
@@ -0,0 +1,398 @@
+package model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Structure-of-arrays storage for all the non gravity bodies (asteroids & comets).
+ * Every property is kept in its own column so the workers can run through
+ * the bodies without chasing a pointer per body.
+ *
+ * The columns live outside of the Java heap, in direct buffers of CHUNK bodies each. The store grows a chunk at a
+ * time without copying what it holds, and the garbage collector neither scans nor moves the bodies, so the heap
+ * and the collection pauses stay the same size however many bodies there are. The limit is the direct memory of
+ * the JVM, see -XX:MaxDirectMemorySize.
+ */
+public class BodyStore {
+
+	public static final int TYPE_ASTEROID = 0;
+	public static final int TYPE_COMET = 1;
+
+	private static final int TYPE_MASK = 0xFF;
+	private static final int COLOR_SHIFT = 8;
+	private static final int COLOR_MASK = 0x7FFFFF << COLOR_SHIFT;
+	private static final int REMOVED = 1 << 31; // Body has collided and will be removed on the next compact()
+	public static final int MAX_COLORS = (COLOR_MASK >>> COLOR_SHIFT) + 1; // Distinct colors the palette can hold
+
+	private static final int CHUNK_SHIFT = 16;
+	public static final int CHUNK = 1 << CHUNK_SHIFT; // Bodies per chunk
+	private static final int CHUNK_MASK = CHUNK - 1;
+	private static final int DOUBLES = 7, INTS = 3;   // Columns of each type
+	private static final int STAGGER = 7*64;          // Bytes between the columns, see region()
+
+	// Column k of body i is at [i >>> CHUNK_SHIFT].get(i & CHUNK_MASK)
+	private DoubleBuffer[] rx, ry;     // cartesian positions
+	private DoubleBuffer[] vx, vy;     // velocity components
+	private DoubleBuffer[] fx, fy;     // force components
+	private DoubleBuffer[] mass;       // mass
+	private IntBuffer[] flags;         // type, palette index of the color and the removed flag
+	private IntBuffer[] diameter;      // diameter in pixels when drawing, follows the mass
+	private IntBuffer[] id;            // identifies a body for as long as it exists. Increasing with the index
+	private int chunks;
+	private int size;
+	private int nextId;
+
+	private ArrayList<Color> palette; // The few distinct colors used by the bodies
+
+	public BodyStore(int capacity){
+		rx = ry = vx = vy = fx = fy = mass = new DoubleBuffer[0];
+		flags = diameter = id = new IntBuffer[0];
+		palette = new ArrayList<Color>();
+		size = 0;
+		ensureCapacity(Math.max(1, capacity));
+	}
+
+	/**
+	 * Number of bodies the store holds without allocating another chunk
+	 */
+	public long capacity(){
+		return (long) chunks << CHUNK_SHIFT;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public void clear(){
+		size = 0;
+		nextId = 0;
+	}
+
+	/**
+	 * Copy the state of a body into the store. The body object itself is not kept.
+	 * @return the index of the new body
+	 */
+	public int add(Body b){
+		int type = b instanceof Comet ? TYPE_COMET : TYPE_ASTEROID;
+		return add(b.rx, b.ry, b.vx, b.vy, b.mass, type, b.color);
+	}
+
+	public int add(double rx, double ry, double vx, double vy, double mass, int type, Color color){
+		if(size == Integer.MAX_VALUE){
+			throw new IllegalStateException("The store is full");
+		}
+		ensureCapacity(size+1);
+		int i = size++;
+		int c = i >>> CHUNK_SHIFT, k = i & CHUNK_MASK;
+		this.rx[c].put(k, rx);
+		this.ry[c].put(k, ry);
+		this.vx[c].put(k, vx);
+		this.vy[c].put(k, vy);
+		this.fx[c].put(k, 0.0);
+		this.fy[c].put(k, 0.0);
+		this.mass[c].put(k, mass);
+		this.flags[c].put(k, type | (colorIndex(color) << COLOR_SHIFT));
+		this.diameter[c].put(k, Body.diameterOf(mass));
+		this.id[c].put(k, nextId++);
+		return i;
+	}
+
+	// Allocate chunks until the store can hold the given number of bodies
+	private void ensureCapacity(int capacity){
+		while(capacity() < capacity){
+			if(chunks == rx.length){
+				int n = Math.max(4, 2*chunks);
+				rx = Arrays.copyOf(rx, n);
+				ry = Arrays.copyOf(ry, n);
+				vx = Arrays.copyOf(vx, n);
+				vy = Arrays.copyOf(vy, n);
+				fx = Arrays.copyOf(fx, n);
+				fy = Arrays.copyOf(fy, n);
+				mass = Arrays.copyOf(mass, n);
+				flags = Arrays.copyOf(flags, n);
+				diameter = Arrays.copyOf(diameter, n);
+				id = Arrays.copyOf(id, n);
+			}
+			// One buffer per chunk, cut in a region per column
+			ByteBuffer b = ByteBuffer.allocateDirect(CHUNK*(8*DOUBLES + 4*INTS) + STAGGER*(DOUBLES + INTS));
+			int c = chunks++;
+			rx[c] = doubles(b, 0);
+			ry[c] = doubles(b, 1);
+			vx[c] = doubles(b, 2);
+			vy[c] = doubles(b, 3);
+			fx[c] = doubles(b, 4);
+			fy[c] = doubles(b, 5);
+			mass[c] = doubles(b, 6);
+			flags[c] = ints(b, 0);
+			diameter[c] = ints(b, 1);
+			id[c] = ints(b, 2);
+		}
+	}
+
+	private static DoubleBuffer doubles(ByteBuffer b, int column){
+		return region(b, 8*CHUNK*column, column, 8*CHUNK).asDoubleBuffer();
+	}
+
+	private static IntBuffer ints(ByteBuffer b, int column){
+		return region(b, 8*CHUNK*DOUBLES + 4*CHUNK*column, DOUBLES + column, 4*CHUNK).asIntBuffer();
+	}
+
+	// The columns are a power of two apart, so the properties of a body would all fall in the same set of the
+	// caches and push each other out. Every column is moved a few cache lines further than the one before.
+	private static ByteBuffer region(ByteBuffer b, int offset, int column, int length){
+		offset += STAGGER*column;
+		b.limit(offset + length).position(offset);
+		return b.slice().order(ByteOrder.nativeOrder());
+	}
+
+	private int colorIndex(Color c){
+		int i = palette.indexOf(c);
+		if(i < 0){
+			if(palette.size() == MAX_COLORS){
+				throw new IllegalStateException("More than " + MAX_COLORS + " distinct colors");
+			}
+			palette.add(c);
+			i = palette.size()-1;
+		}
+		return i;
+	}
+
+	/**
+	 * Remove all bodies marked as removed in a single pass. The order of the remaining bodies is kept.
+	 * @return the number of bodies removed
+	 */
+	public int compact(){
+		int j = 0;
+		for(int i = 0; i < size; i++){
+			int c = i >>> CHUNK_SHIFT, k = i & CHUNK_MASK;
+			int f = flags[c].get(k);
+			if((f & REMOVED) != 0){
+				continue;
+			}
+			if(i != j){
+				int cj = j >>> CHUNK_SHIFT, kj = j & CHUNK_MASK;
+				rx[cj].put(kj, rx[c].get(k));
+				ry[cj].put(kj, ry[c].get(k));
+				vx[cj].put(kj, vx[c].get(k));
+				vy[cj].put(kj, vy[c].get(k));
+				fx[cj].put(kj, fx[c].get(k));
+				fy[cj].put(kj, fy[c].get(k));
+				mass[cj].put(kj, mass[c].get(k));
+				flags[cj].put(kj, f);
+				diameter[cj].put(kj, diameter[c].get(k));
+				id[cj].put(kj, id[c].get(k));
+			}
+			j++;
+		}
+		int removed = size - j;
+		size = j;
+		return removed;
+	}
+
+	/**
+	 * Create a Body object with the current state of body i. Only meant for the few places that need an object,
+	 * changes to the returned body are not written back.
+	 */
+	public Body getBody(int i){
+		if(type(i) == TYPE_COMET){
+			return new Comet(rx(i), ry(i), vx(i), vy(i), mass(i), color(i));
+		}
+		return new Asteroid(rx(i), ry(i), vx(i), vy(i), mass(i), color(i));
+	}
+
+	public double rx(int i){ return rx[i >>> CHUNK_SHIFT].get(i & CHUNK_MASK); }
+	public double ry(int i){ return ry[i >>> CHUNK_SHIFT].get(i & CHUNK_MASK); }
+	public double vx(int i){ return vx[i >>> CHUNK_SHIFT].get(i & CHUNK_MASK); }
+	public double vy(int i){ return vy[i >>> CHUNK_SHIFT].get(i & CHUNK_MASK); }
+	public double fx(int i){ return fx[i >>> CHUNK_SHIFT].get(i & CHUNK_MASK); }
+	public double fy(int i){ return fy[i >>> CHUNK_SHIFT].get(i & CHUNK_MASK); }
+	public double mass(int i){ return mass[i >>> CHUNK_SHIFT].get(i & CHUNK_MASK); }
+
+	/**
+	 * Copy the positions of the bodies from..from+n-1 to the arrays. The bodies must all be in the same chunk,
+	 * i.e. from/CHUNK == (from+n-1)/CHUNK.
+	 */
+	public void getPositions(int from, int n, double[] x, double[] y){
+		get(rx, from, n, x);
+		get(ry, from, n, y);
+	}
+
+	/**
+	 * Copy the velocities of the bodies from..from+n-1, all in the same chunk, to the arrays
+	 */
+	public void getVelocities(int from, int n, double[] x, double[] y){
+		get(vx, from, n, x);
+		get(vy, from, n, y);
+	}
+
+	/**
+	 * Copy the masses of the bodies from..from+n-1, all in the same chunk, to the array
+	 */
+	public void getMasses(int from, int n, double[] m){
+		get(mass, from, n, m);
+	}
+
+	/**
+	 * Set the positions of the bodies from..from+n-1, all in the same chunk, from the arrays
+	 */
+	public void setPositions(int from, int n, double[] x, double[] y){
+		put(rx, from, n, x);
+		put(ry, from, n, y);
+	}
+
+	/**
+	 * Set the velocities of the bodies from..from+n-1, all in the same chunk, from the arrays
+	 */
+	public void setVelocities(int from, int n, double[] x, double[] y){
+		put(vx, from, n, x);
+		put(vy, from, n, y);
+	}
+
+	/**
+	 * Set the forces of the bodies from..from+n-1, all in the same chunk, from the arrays
+	 */
+	public void setForces(int from, int n, double[] x, double[] y){
+		put(fx, from, n, x);
+		put(fy, from, n, y);
+	}
+
+	// Copy a run of a column in one go, instead of a body at a time
+	private static void get(DoubleBuffer[] column, int from, int n, double[] dst){
+		DoubleBuffer b = column[from >>> CHUNK_SHIFT].duplicate();
+		b.position(from & CHUNK_MASK);
+		b.get(dst, 0, n);
+	}
+
+	private static void put(DoubleBuffer[] column, int from, int n, double[] src){
+		DoubleBuffer b = column[from >>> CHUNK_SHIFT].duplicate();
+		b.position(from & CHUNK_MASK);
+		b.put(src, 0, n);
+	}
+
+	public void setPosition(int i, double x, double y){
+		int c = i >>> CHUNK_SHIFT, k = i & CHUNK_MASK;
+		rx[c].put(k, x);
+		ry[c].put(k, y);
+	}
+
+	public void setVelocity(int i, double x, double y){
+		int c = i >>> CHUNK_SHIFT, k = i & CHUNK_MASK;
+		vx[c].put(k, x);
+		vy[c].put(k, y);
+	}
+
+	public void setForce(int i, double x, double y){
+		int c = i >>> CHUNK_SHIFT, k = i & CHUNK_MASK;
+		fx[c].put(k, x);
+		fy[c].put(k, y);
+	}
+
+	public void setMass(int i, double m){
+		int c = i >>> CHUNK_SHIFT, k = i & CHUNK_MASK;
+		mass[c].put(k, m);
+		diameter[c].put(k, Body.diameterOf(m));
+	}
+
+	private int flags(int i){
+		return flags[i >>> CHUNK_SHIFT].get(i & CHUNK_MASK);
+	}
+
+	public int type(int i){
+		return flags(i) & TYPE_MASK;
+	}
+
+	public Color color(int i){
+		return palette.get(colorIndex(i));
+	}
+
+	// index of the color of body i in getPalette()
+	public int colorIndex(int i){
+		return (flags(i) & COLOR_MASK) >>> COLOR_SHIFT;
+	}
+
+	public Color[] getPalette(){
+		return palette.toArray(new Color[palette.size()]);
+	}
+
+	/**
+	 * Copy the palette into the given array if it has its size, otherwise into a new one
+	 */
+	public Color[] getPalette(Color[] into){
+		if(into.length != palette.size()){
+			into = new Color[palette.size()];
+		}
+		return palette.toArray(into);
+	}
+
+	public int diameter(int i){
+		return diameter[i >>> CHUNK_SHIFT].get(i & CHUNK_MASK);
+	}
+
+	/**
+	 * The id of body i: the number of bodies added before it since the last clear(). Ids don't change
+	 * when other bodies are removed, and increase with the index.
+	 */
+	public int id(int i){
+		return id[i >>> CHUNK_SHIFT].get(i & CHUNK_MASK);
+	}
+
+	/**
+	 * The index of the first body with an id of at least the given one, or size() if there is none
+	 */
+	public int indexOf(int minId){
+		int lo = 0, hi = size;
+		while(lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if(id(mid) < minId){
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	public boolean isRemoved(int i){
+		return (flags(i) & REMOVED) != 0;
+	}
+
+	public void markRemoved(int i){
+		int c = i >>> CHUNK_SHIFT, k = i & CHUNK_MASK;
+		flags[c].put(k, flags[c].get(k) | REMOVED);
+	}
+
+	/**
+	 * Merge body j into body i, keeping the center of mass and the momentum, and mark j as removed
+	 */
+	public void merge(int i, int j){
+		double mi = mass(i), mj = mass(j);
+		double m = mi + mj;
+		setPosition(i, (mi*rx(i) + mj*rx(j)) / m, (mi*ry(i) + mj*ry(j)) / m);
+		setVelocity(i, (mi*vx(i) + mj*vx(j)) / m, (mi*vy(i) + mj*vy(j)) / m);
+		setForce(i, fx(i) + fx(j), fy(i) + fy(j));
+		setMass(i, m);
+		markRemoved(j);
+	}
+
+	// move body i with its current velocity for a time dt
+	public void drift(int i, double dt){
+		int c = i >>> CHUNK_SHIFT, k = i & CHUNK_MASK;
+		rx[c].put(k, rx[c].get(k) + dt * vx[c].get(k));
+		ry[c].put(k, ry[c].get(k) + dt * vy[c].get(k));
+	}
+
+	// change the velocity of body i with its current force for a time dt
+	public void kick(int i, double dt){
+		int c = i >>> CHUNK_SHIFT, k = i & CHUNK_MASK;
+		double m = mass[c].get(k);
+		vx[c].put(k, vx[c].get(k) + dt * fx[c].get(k) / m);
+		vy[c].put(k, vy[c].get(k) + dt * fy[c].get(k) / m);
+	}
+
+}
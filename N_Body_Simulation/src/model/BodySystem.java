@@ -1,8 +1,11 @@
 package model;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 
 import files.FileLoader;
+import files.OrbitalElements;
 import javafx.geometry.Point2D;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.paint.Color;
@@ -16,35 +19,65 @@ public class BodySystem {
 	public static final double G = 6.673e-11;   // gravitational constant
 	public static final double maxDeltaTime = 5e14; // Maximum delta time between calculations
 	public static final double minDeltaTime = 1e11; // Minimum delta time between calculations
-	public static final int MAX_OBJECTS = 710000; // Maximum number of objects in the system
 
-	private FileLoader fileLoader;
+	private Body center; // The body the known comets and asteroids orbit
+	private int loadGeneration; // Incremented on every reset, so a streaming load of known bodies stops adding
+	private volatile int knownLoaded, knownRequested; // Progress of streamKnownBodies()
+	private static final int STREAM_BATCH = 10000; // Known bodies added to the store at a time while streaming
 	private double deltaTime = 1e13;
-	private ArrayList<Body> bodies, gravityBodies;
+	private ArrayList<Body> gravityBodies;
 	private ArrayList<Collision> collisions; // Bodies that has been removed in the last update due to collision with another body
 	private int frame;
 
-	private final int CORES = Runtime.getRuntime().availableProcessors(); // Estimated number of cores (may include virtual cores)
-	private final int OPTIMALTHREADCOUNT = CORES*2; // Benchmarking shows better performance at more threads pr. core
+	private static final int CORES = Runtime.getRuntime().availableProcessors(); // Estimated number of cores (may include virtual cores)
+	public static final int DEFAULT_THREADCOUNT = Integer.getInteger("nbody.threads", CORES*2); // Can be set with -Dnbody.threads=n, see benchmark.ThreadCountBenchmark
 
-	private ArrayList<ArrayList<Body>> bodiesList; // List containing the 4 lists of non gravity bodies
-	private ArrayList<ArrayList<Collision>> collisionsList;
-	private ArrayList<Body> comets;
+	private StepExecutor executor; // Long-lived workers updating the non gravity bodies
+	private WorkerThread worker;
+	private GravityEngine engine; // Mutual gravity between the non gravity bodies. null = massless test particles
+	private Integrator integrator;
+	private boolean adaptive; // Let massless bodies close to a gravity body take substeps
+
+	public static final int MAX_LEVEL = 8; // Adaptive bodies split an update in at most 2^MAX_LEVEL substeps
+	public static final double ETA = 0.01; // Largest substep as a fraction of the dynamical time scale
+
+	private BodyStore store; // All the non gravity bodies (asteroids & comets)
+	private GravityField field; // Snapshot of the gravity bodies used by the workers
 	private boolean showComets, enableCollisions;
+	private SpatialHash spatialHash; // Finds the non gravity bodies that ran into each other
+	private boolean mergeBodies;     // Let the non gravity bodies collide with each other
+	private double mergeDistance = MERGE_DISTANCE;
+
+	public static final double MERGE_DISTANCE = 1e15; // Default distance below which two small bodies merge
 
-	private int updates; // For performance-testing
-	private long avgTime; // For performance-testing
+	private final StepMetrics metrics = new StepMetrics(); // Time of the phases of the updates
 
 	public BodySystem(){
+		this(DEFAULT_THREADCOUNT);
+	}
+
+	public BodySystem(int threadCount){
 		frame = 0;
-		collisionsList = new ArrayList<ArrayList<Collision>>();
+		store = new BodyStore(1024);
+		field = new GravityField();
+		executor = new StepExecutor(threadCount);
+		integrator = new LeapfrogIntegrator();
+		adaptive = true;
+		worker = new WorkerThread(store, field, executor.getSlotCount());
+		worker.setVectorized(!Boolean.getBoolean("nbody.scalar"));
+		spatialHash = new SpatialHash(executor.getSlotCount());
 		resetBodies();
 	}
 
 	public void resetBodies(){	
-		updates = 0;
-		avgTime = 0;
-		bodiesList = new ArrayList<ArrayList<Body>>();
+		synchronized(this){
+			loadGeneration++;
+			knownLoaded = 0;
+			knownRequested = 0;
+		}
+		metrics.reset();
+		store.clear();
+		collisions = new ArrayList<Collision>();
 		gravityBodies = new ArrayList<Body>();
 
 		// Create the solar system (sun + planets)
@@ -69,8 +102,10 @@ public class BodySystem {
 		gravityBodies.add(uranus);
 		gravityBodies.add(neptune);
 
-		fileLoader = new FileLoader(sun); // Load know comets and asteroids
-		comets = fileLoader.getCometList();
+		// The known comets and asteroids are loaded once in the background and created from their orbital elements
+		center = sun;
+		FileLoader.getCatalogAsync(FileLoader.COMETS);
+		FileLoader.getCatalogAsync(FileLoader.ASTEROIDS);
 	}
 
 	public Body getBody(double dist, double mass, Color c, String type){
@@ -90,8 +125,8 @@ public class BodySystem {
 		}
 	}
 
-	public ArrayList<ArrayList<Body>> getBodies(){
-		return bodiesList;
+	public BodyStore getStore(){
+		return store;
 	}
 
 	public ArrayList<Body> getGravityBodies(){
@@ -99,57 +134,122 @@ public class BodySystem {
 	}
 
 	public void addRandomBodies(int n){
-		if(n > MAX_OBJECTS){
-			n = MAX_OBJECTS;
-		} else if (n < 0){
+		if(n < 0){
 			n = 0;
 		}	
-		for(int r = 0; r < OPTIMALTHREADCOUNT; r++){
-			bodies = new ArrayList<Body>();
-			collisions = new ArrayList<Collision>();
-			for (int i = 0; i < n/OPTIMALTHREADCOUNT; i++) {
-//				double px = Math.abs(1e18*exp(-1.8)*(.5-Math.random())); // Exponential objects. More at the center
-				double dist = Math.abs(Math.random()*earthDistance*40); //1.5e18); // Linear objects
-				double mass = Math.abs(Math.random()*9.393e20*exp(1.8)); // Up to the mass of Ceres
-				Color color = Color.ANTIQUEWHITE;
-				bodies.add(new Asteroid(dist, mass, color));
-			}
-			this.bodiesList.add(bodies);
-			this.collisionsList.add(collisions);
+		for (int i = 0; i < n; i++) {
+//			double px = Math.abs(1e18*exp(-1.8)*(.5-Math.random())); // Exponential objects. More at the center
+			double dist = Math.abs(Math.random()*earthDistance*40); //1.5e18); // Linear objects
+			double mass = Math.abs(Math.random()*9.393e20*exp(1.8)); // Up to the mass of Ceres
+			Color color = Color.ANTIQUEWHITE;
+			store.add(new Asteroid(dist, mass, color));
 		}
 		if(this.showComets){
-			bodiesList.add(comets);			
+			addComets();
 		}
 	}
 
 
 	public void addKnownBodies(int n){
-		ArrayList<Asteroid> asteroids = fileLoader.getAsteroidList();
-		if(n > MAX_OBJECTS){
-			n = MAX_OBJECTS;
-		} else if (n < 0){
+		OrbitalElements asteroids = FileLoader.getCatalog(FileLoader.ASTEROIDS);
+		if(n < 0){
 			n = 0;
 		}	
-		for(int r = 0; r < OPTIMALTHREADCOUNT; r++){
-			bodies = new ArrayList<Body>();
-			collisions = new ArrayList<Collision>();
-			for (int i = 0; i < n/OPTIMALTHREADCOUNT; i++) {
-				bodies.add(asteroids.get((n/OPTIMALTHREADCOUNT)*r + i));
-			}
-			this.bodiesList.add(bodies);
-			this.collisionsList.add(collisions);
+		if(n > asteroids.size()){
+			n = asteroids.size();
+		}
+		for (int i = 0; i < n; i++) {
+			store.add(new Asteroid(asteroids.semiMajor(i), asteroids.eccentricity(i), asteroids.longAscendNode(i), asteroids.argPeri(i), asteroids.mass(i), Color.WHITE, center));
 		}
 		if(this.showComets){
-			bodiesList.add(comets);			
+			addComets();
 		}
 	}
 
-	private void addComets(int n){
-		for(int i=0; i<n; i++){
-			double dist = Math.abs(Math.random()*earthDistance*9.6); //1.5e18); // Linear objects
-			double mass = Math.abs(Math.random()*9.393e20*exp(1.8)); // Up to the mass of Ceres
-			Color color = Color.ANTIQUEWHITE;
-			bodies.add(new Comet(dist, mass, color));
+	/**
+	 * Add the first n known asteroids (and the comets if shown) in the background, in batches as soon as their part of
+	 * the catalog is parsed, so the simulation can run while the catalog is still loading. See getKnownBodiesLoaded().
+	 */
+	public void streamKnownBodies(int n){
+		if(n < 0){
+			n = 0;
+		}
+		final int requested = n;
+		final int generation;
+		synchronized(this){
+			generation = ++loadGeneration;
+			knownLoaded = 0;
+			knownRequested = requested;
+		}
+		Thread loader = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				int added = 0;
+				for(int k = 0; added < requested; k++){
+					OrbitalElements chunk = FileLoader.getChunk(FileLoader.ASTEROIDS, k);
+					if(chunk == null){
+						break; // The catalog has fewer bodies
+					}
+					for(int from = 0; from < chunk.size() && added < requested; from += STREAM_BATCH){
+						int to = Math.min(chunk.size(), Math.min(from + STREAM_BATCH, from + requested - added));
+						if(!addKnownBatch(chunk, from, to, false, generation)){
+							return;
+						}
+						added += to - from;
+					}
+				}
+				synchronized(BodySystem.this){
+					if(generation == loadGeneration){
+						knownRequested = added;
+					}
+				}
+				if(showComets){
+					OrbitalElements comets = FileLoader.getCatalog(FileLoader.COMETS);
+					addKnownBatch(comets, 0, comets.size(), true, generation);
+				}
+			}
+		}, "KnownBodies-loader");
+		loader.setDaemon(true);
+		loader.start();
+	}
+
+	// Add bodies from..to-1 of the elements to the store, unless the system has been reset since the load started
+	private synchronized boolean addKnownBatch(OrbitalElements el, int from, int to, boolean comets, int generation){
+		if(generation != loadGeneration){
+			return false;
+		}
+		for (int i = from; i < to; i++) {
+			if(comets){
+				store.add(new Comet(el.semiMajor(i), el.eccentricity(i), el.longAscendNode(i), el.argPeri(i), el.mass(i), Color.WHITE, center));
+			} else {
+				store.add(new Asteroid(el.semiMajor(i), el.eccentricity(i), el.longAscendNode(i), el.argPeri(i), el.mass(i), Color.WHITE, center));
+			}
+		}
+		if(!comets){
+			knownLoaded += to - from;
+		}
+		return true;
+	}
+
+	/**
+	 * Number of known asteroids added so far by streamKnownBodies()
+	 */
+	public int getKnownBodiesLoaded(){
+		return knownLoaded;
+	}
+
+	/**
+	 * Number of known asteroids streamKnownBodies() is adding. Lowered to the size of the catalog once it is loaded.
+	 */
+	public int getKnownBodiesRequested(){
+		return knownRequested;
+	}
+
+	// Create the known comets in the store
+	private void addComets(){
+		OrbitalElements comets = FileLoader.getCatalog(FileLoader.COMETS);
+		for (int i = 0; i < comets.size(); i++) {
+			store.add(new Comet(comets.semiMajor(i), comets.eccentricity(i), comets.longAscendNode(i), comets.argPeri(i), comets.mass(i), Color.WHITE, center));
 		}
 	}
 
@@ -157,7 +257,7 @@ public class BodySystem {
 		if(b instanceof Star || b instanceof Planet || b instanceof BlackHole){
 			gravityBodies.add(b);
 		} else {
-			bodies.add(b);			
+			store.add(b);			
 		}
 	}
 
@@ -166,21 +266,136 @@ public class BodySystem {
 	}
 
 	public synchronized void updatePositions(){
-		long start = System.currentTimeMillis();
+		long start = System.nanoTime();
+		metrics.begin();
 		if(frame == Integer.MAX_VALUE){
 			collisions = new ArrayList<Collision>();
 			frame = 0;
 		}
 		frame++;
 
-		// Assign data and work to workerthreads. They will update all non-gravity bodies in the system
-		Thread workers[] = new Thread[OPTIMALTHREADCOUNT];		
-		for(int i=0; i< OPTIMALTHREADCOUNT; i++){
-			workers[i]= new Thread(new WorkerThread(bodiesList.get(i), gravityBodies, this.deltaTime, this.frame, i, this, enableCollisions));
-			workers[i].start();
+		worker.resetRemoved();
+		if(engine == null){
+			stepMassless();
+		} else {
+			stepMutual();
+		}
+
+		// Merge the small bodies that ran into each other
+		long t = System.nanoTime();
+		int merged = 0;
+		if(mergeBodies){
+			merged = spatialHash.merge(store, executor, mergeDistance);
+		}
+
+		// Remove the bodies that collided in a single pass
+		if(worker.getRemoved() + merged > 0){
+			store.compact();
+		}
+		long end = System.nanoTime();
+		metrics.add(StepMetrics.Phase.COLLISIONS, end - t);
+		metrics.add(StepMetrics.Phase.UPDATE, end - start);
+		metrics.end();
+	}	
+
+	/**
+	 * Update where the non gravity bodies are massless. The gravity bodies are advanced first, then each worker
+	 * advances its bodies through the interpolated path of the gravity bodies, with substeps where needed.
+	 */
+	private void stepMassless(){
+		double[] drifts = integrator.getDrifts();
+		double[] kicks = integrator.getKicks();
+		long t = System.nanoTime();
+		field.begin(gravityBodies);
+		for(int s = 0; s < kicks.length; s++){
+			driftGravityBodies(drifts[s]*deltaTime);
+			updateGravityForces();
+			kickGravityBodies(kicks[s]*deltaTime);
 		}
+		driftGravityBodies(drifts[kicks.length]*deltaTime);
+
+		int maxLevel = adaptive ? MAX_LEVEL : 0;
+		field.interpolate(deltaTime, integrator, maxLevel);
+		t = lap(StepMetrics.Phase.GRAVITY_BODIES, t);
+		worker.prepareStep(deltaTime, integrator, maxLevel, ETA, enableCollisions);
+		executor.takeWaitNanos();
+		executor.invoke(store.size(), worker);
+		t = lap(StepMetrics.Phase.WORKERS, t);
+		metrics.add(StepMetrics.Phase.JOIN_WAIT, executor.takeWaitNanos());
+		worker.applyCollisions();
+		lap(StepMetrics.Phase.COLLISIONS, t);
+	}
 
-		// Update the gravitybodies
+	/**
+	 * Update where all bodies attract each other. Every stage of the integrator is done for all bodies
+	 * before the next, since the forces depend on the positions of all of them.
+	 */
+	private void stepMutual(){
+		double[] drifts = integrator.getDrifts();
+		double[] kicks = integrator.getKicks();
+		for(int s = 0; s < kicks.length; s++){
+			drift(drifts[s]*deltaTime);
+
+			// The workers kick the non gravity bodies while this thread does the gravity bodies
+			long t = System.nanoTime();
+			field.snapshot(gravityBodies);
+			engine.prepare(store);
+			t = lap(StepMetrics.Phase.ENGINE, t);
+			worker.prepareKick(kicks[s]*deltaTime, engine, enableCollisions);
+			executor.takeWaitNanos();
+			executor.submit(store.size(), worker);
+			long g = System.nanoTime();
+			updateGravityForces();
+			kickGravityBodies(kicks[s]*deltaTime);
+			lap(StepMetrics.Phase.GRAVITY_BODIES, g);
+			executor.await();
+			t = lap(StepMetrics.Phase.WORKERS, t);
+			metrics.add(StepMetrics.Phase.JOIN_WAIT, executor.takeWaitNanos());
+			worker.applyCollisions();
+			lap(StepMetrics.Phase.COLLISIONS, t);
+		}
+		drift(drifts[kicks.length]*deltaTime);
+	}
+
+	// Move all bodies with their current velocity
+	private void drift(double dt){
+		if(dt == 0.0){
+			return;
+		}
+		long t = System.nanoTime();
+		driftGravityBodies(dt);
+		t = lap(StepMetrics.Phase.GRAVITY_BODIES, t);
+		worker.prepareDrift(dt);
+		executor.takeWaitNanos();
+		executor.invoke(store.size(), worker);
+		lap(StepMetrics.Phase.WORKERS, t);
+		metrics.add(StepMetrics.Phase.JOIN_WAIT, executor.takeWaitNanos());
+	}
+
+	// Add the time since start to the phase and return the current time
+	private long lap(StepMetrics.Phase phase, long start){
+		long now = System.nanoTime();
+		metrics.add(phase, now - start);
+		return now;
+	}
+
+	private void driftGravityBodies(double dt){
+		if(dt == 0.0){
+			return;
+		}
+		for(Body b : gravityBodies){
+			b.drift(dt);
+		}
+	}
+
+	private void kickGravityBodies(double dt){
+		for(Body b : gravityBodies){
+			b.kick(dt);
+		}
+	}
+
+	// Compute the forces between the gravitybodies, and from the other bodies if they have mass
+	private void updateGravityForces(){
 		for(int i = 0; i < gravityBodies.size(); i++){
 			gravityBodies.get(i).resetForce();
 			for (int j = 0; j < gravityBodies.size(); j++){
@@ -205,54 +420,12 @@ public class BodySystem {
 			}
 		}
 
-		for(Body b : gravityBodies){
-			b.update(deltaTime);
-		}
-
-		if(showComets){
-			// Update the comets
-			for(int i = 0; i < comets.size(); i++){
-				comets.get(i).resetForce();
-				for (int j = 0; j < gravityBodies.size(); j++){
-					if(i!=j){
-						comets.get(i).addForce(gravityBodies.get(j));
-						// If two bodies collide then we merge them and keep the combined mass in a single item
-						if(collided(comets.get(i), gravityBodies.get(j))){
-							System.err.println("Comet collision detected!");
-							if(comets.get(i).mass < gravityBodies.get(j).mass){
-								gravityBodies.get(j).addBodyMass(comets.get(i));
-								collisions.add(new Collision(comets.get(i), frame));
-								comets.remove(i);
-								i--;
-							} else {
-								comets.get(i).addBodyMass(gravityBodies.get(j));
-								collisions.add(new Collision(gravityBodies.get(j), frame));
-								gravityBodies.remove(j);
-								j--;
-							}
-						}
-					}
-				}
-			}
-
-			for(Body b : comets){
-				b.update(deltaTime);
-			}
-		}
-
-		// Wait for each workerthread to finish
-		for(int i=0; i<OPTIMALTHREADCOUNT; i++){
-			try {
-				workers[i].join();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+		if(engine != null){
+			for(Body b : gravityBodies){
+				engine.addForce(b);
 			}
 		}
-		
-		this.updates++;
-		this.avgTime += System.currentTimeMillis() - start;
-		System.out.println("Update time: " + (avgTime/updates) + " - OPTIMALTHREADCOUNT: " + OPTIMALTHREADCOUNT);
-	}	
+	}
 
 	public synchronized void setDeltaTime(double dt){
 		if(dt <= BodySystem.maxDeltaTime && dt >= BodySystem.minDeltaTime){
@@ -265,8 +438,9 @@ public class BodySystem {
 		if(!enableCollisions){
 			return false;
 		}
-		double dist = Math.abs(Math.sqrt(Math.pow((b.rx-a.rx), 2)+Math.pow(b.ry-a.ry, 2)));
-		if(dist < 7e15){
+		double dx = b.rx - a.rx;
+		double dy = b.ry - a.ry;
+		if(dx*dx + dy*dy < 7e15*7e15){
 			return true;
 		}
 		return false;
@@ -290,6 +464,63 @@ public class BodySystem {
 		return out;
 	}
 
+	/**
+	 * Copy the current state of the system into a snapshot the GUI can draw while the system is updated
+	 */
+	public synchronized void writeSnapshot(Snapshot snapshot){
+		snapshot.write(frame, store, gravityBodies, getCollisions());
+	}
+
+	/**
+	 * Copy the complete state of the system into a checkpoint, e.g. to write it to a file while the system is updated
+	 */
+	public synchronized void writeCheckpoint(Checkpoint checkpoint){
+		checkpoint.capture(frame, deltaTime, store, gravityBodies);
+	}
+
+	/**
+	 * Replace the state of the system with the one in the checkpoint
+	 */
+	public synchronized void restoreCheckpoint(Checkpoint checkpoint){
+		if(checkpoint.getFrame() < 0 || checkpoint.getFrame() > Integer.MAX_VALUE){
+			throw new IllegalArgumentException("Invalid frame in checkpoint: " + checkpoint.getFrame());
+		}
+		// Stop a streaming load of known bodies, it belongs to the state that is replaced
+		loadGeneration++;
+		knownLoaded = 0;
+		knownRequested = 0;
+		checkpoint.restore(store, gravityBodies);
+		frame = (int) checkpoint.getFrame();
+		deltaTime = checkpoint.getDeltaTime();
+		collisions = new ArrayList<Collision>();
+		metrics.reset();
+
+		// The known bodies added later orbit the restored star
+		center = null;
+		for(Body b : gravityBodies){
+			if(b instanceof Star){
+				center = b;
+				break;
+			}
+		}
+		if(center == null && !gravityBodies.isEmpty()){
+			center = gravityBodies.get(0);
+		}
+	}
+
+	/**
+	 * Save the state of the system to a file. The updates are only held up while the state is copied.
+	 */
+	public void saveCheckpoint(Path path) throws IOException {
+		Checkpoint checkpoint = new Checkpoint();
+		writeCheckpoint(checkpoint);
+		checkpoint.write(path);
+	}
+
+	public void loadCheckpoint(Path path) throws IOException {
+		restoreCheckpoint(Checkpoint.read(path));
+	}
+
 	public double getDeltaTime() {
 		return this.deltaTime;
 	}
@@ -305,8 +536,76 @@ public class BodySystem {
 		return new Point2D(x/totalMass, y/totalMass);
 	}
 
-	public ArrayList<Collision> getCollisionsList(int i) {
-		return collisionsList.get(i);
+	/**
+	 * Select how the non gravity bodies attract each other
+	 * @param engine e.g. BarnesHutGravity for full mutual gravity, or null to treat them as massless test particles
+	 */
+	public synchronized void setGravityEngine(GravityEngine engine){
+		this.engine = engine;
+	}
+
+	public GravityEngine getGravityEngine(){
+		return engine;
+	}
+
+	/**
+	 * Select the scheme used to advance the bodies, e.g. EulerIntegrator, LeapfrogIntegrator or YoshidaIntegrator
+	 */
+	public synchronized void setIntegrator(Integrator integrator){
+		this.integrator = integrator;
+	}
+
+	public Integrator getIntegrator(){
+		return integrator;
+	}
+
+	/**
+	 * Let massless bodies close to a gravity body split the update in up to 2^MAX_LEVEL substeps.
+	 * Has no effect with a gravity engine, where all bodies share the same steps.
+	 */
+	public synchronized void setAdaptive(boolean adaptive){
+		this.adaptive = adaptive;
+	}
+
+	public boolean isAdaptive(){
+		return adaptive;
+	}
+
+	/**
+	 * Advance the massless bodies without substeps in vectorizable blocks (default), or one at a time.
+	 * The scalar kernel can also be selected with -Dnbody.scalar=true
+	 */
+	public synchronized void setVectorized(boolean vectorized){
+		worker.setVectorized(vectorized);
+	}
+
+	public boolean isVectorized(){
+		return worker.isVectorized();
+	}
+
+	/**
+	 * The time taken by the phases of the updates, from the last reset or restored checkpoint
+	 */
+	public StepMetrics getMetrics(){
+		return metrics;
+	}
+
+	public int getThreadCount(){
+		return executor.getThreadCount();
+	}
+
+	/**
+	 * The workers of the system. Idle while the gravity engine is prepared, so the engine may use them then.
+	 */
+	public StepExecutor getExecutor(){
+		return executor;
+	}
+
+	/**
+	 * Stop the worker threads. The system can not be updated afterwards.
+	 */
+	public void shutdown(){
+		executor.shutdown();
 	}
 	
 	public void setShowComets(boolean c){
@@ -317,4 +616,24 @@ public class BodySystem {
 		this.enableCollisions = c;
 	}
 
+	/**
+	 * Let the non gravity bodies collide with each other: bodies closer than the merge distance are merged
+	 * into one, keeping their mass and momentum
+	 */
+	public void setMergeBodies(boolean m) {
+		this.mergeBodies = m;
+	}
+
+	public boolean isMergeBodies() {
+		return mergeBodies;
+	}
+
+	public void setMergeDistance(double d) {
+		this.mergeDistance = d;
+	}
+
+	public double getMergeDistance() {
+		return mergeDistance;
+	}
+
 }
@@ -0,0 +1,289 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+import javafx.scene.paint.Color;
+
+/**
+ * The complete state of a BodySystem: every body, the frame counter and the delta time. Copied from the
+ * system while it is locked, then written to or read from a compact binary file without holding the lock.
+ *
+ * File layout: a header, the gravity bodies one by one, then the non gravity bodies column by column
+ * (all rx, all ry, all vx, all vy, all masses, all type/color flags), so the columns can be copied in bulk.
+ */
+public class Checkpoint {
+
+	private static final int MAGIC = 0x4E42434B; // "NBCK"
+	private static final int VERSION = 1;
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private long frame;
+	private double deltaTime;
+
+	// The gravity bodies
+	private int gravityCount;
+	private int[] gkind;             // Snapshot.PLANET, STAR or BLACK_HOLE
+	private double[] gstate;         // rx, ry, vx, vy, mass of body j at [5*j]
+	private Color[] gcolor;
+	private int[] gimpacts;
+
+	// The non gravity bodies
+	private int count;
+	private double[] rx, ry, vx, vy, mass;
+	private int[] flags;             // type | palette index << 8
+	private Color[] palette;
+
+	public Checkpoint(){
+		gkind = new int[0];
+		gstate = new double[0];
+		gcolor = new Color[0];
+		gimpacts = new int[0];
+		rx = ry = vx = vy = mass = new double[0];
+		flags = new int[0];
+		palette = new Color[0];
+	}
+
+	public long getFrame(){
+		return frame;
+	}
+
+	public double getDeltaTime(){
+		return deltaTime;
+	}
+
+	// Number of non gravity bodies
+	public int size(){
+		return count;
+	}
+
+	void capture(long frame, double deltaTime, BodyStore store, ArrayList<Body> gravityBodies){
+		this.frame = frame;
+		this.deltaTime = deltaTime;
+
+		gravityCount = gravityBodies.size();
+		ensureGravity(gravityCount);
+		for(int j = 0; j < gravityCount; j++){
+			Body b = gravityBodies.get(j);
+			gkind[j] = b instanceof Star ? Snapshot.STAR : b instanceof BlackHole ? Snapshot.BLACK_HOLE : Snapshot.PLANET;
+			gstate[5*j] = b.rx;
+			gstate[5*j+1] = b.ry;
+			gstate[5*j+2] = b.vx;
+			gstate[5*j+3] = b.vy;
+			gstate[5*j+4] = b.mass;
+			gcolor[j] = b.color;
+			gimpacts[j] = b.impacts;
+		}
+
+		count = store.size();
+		ensureBodies(count);
+		for(int i = 0; i < count; i++){
+			rx[i] = store.rx(i);
+			ry[i] = store.ry(i);
+			vx[i] = store.vx(i);
+			vy[i] = store.vy(i);
+			mass[i] = store.mass(i);
+			flags[i] = store.type(i) | store.colorIndex(i) << 8;
+		}
+		palette = store.getPalette();
+	}
+
+	void restore(BodyStore store, ArrayList<Body> gravityBodies){
+		gravityBodies.clear();
+		for(int j = 0; j < gravityCount; j++){
+			double[] s = gstate;
+			Body b;
+			switch(gkind[j]){
+			case Snapshot.STAR:
+				b = new Star(s[5*j], s[5*j+1], s[5*j+2], s[5*j+3], s[5*j+4], gcolor[j]);
+				break;
+			case Snapshot.BLACK_HOLE:
+				b = new BlackHole(s[5*j], s[5*j+1], s[5*j+2], s[5*j+3], s[5*j+4], gcolor[j]);
+				break;
+			default:
+				b = new Planet(s[5*j], s[5*j+1], s[5*j+2], s[5*j+3], s[5*j+4], gcolor[j]);
+				break;
+			}
+			b.color = gcolor[j];
+			b.impacts = gimpacts[j];
+			gravityBodies.add(b);
+		}
+
+		store.clear();
+		for(int i = 0; i < count; i++){
+			store.add(rx[i], ry[i], vx[i], vy[i], mass[i], flags[i] & 0xFF, palette[flags[i] >>> 8]);
+		}
+	}
+
+	/**
+	 * Write the checkpoint to a new file next to the given one, then move it in place, so an interrupted
+	 * write never leaves a broken checkpoint behind
+	 */
+	public void write(Path path) throws IOException {
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			buf.putInt(MAGIC).putInt(VERSION).putLong(frame).putDouble(deltaTime);
+			buf.putInt(palette.length);
+			for(Color c : palette){
+				putColor(buf, c);
+			}
+			buf.putInt(gravityCount);
+			for(int j = 0; j < gravityCount; j++){
+				buf.putInt(gkind[j]);
+				for(int k = 0; k < 5; k++){
+					buf.putDouble(gstate[5*j+k]);
+				}
+				putColor(buf, gcolor[j]);
+				buf.putInt(gimpacts[j]);
+				if(buf.remaining() < 128){
+					flush(ch, buf);
+				}
+			}
+			buf.putInt(count);
+			for(double[] column : new double[][]{rx, ry, vx, vy, mass}){
+				for(int i = 0; i < count; ){
+					if(buf.remaining() < 8){
+						flush(ch, buf);
+					}
+					int n = Math.min(count - i, buf.remaining()/8);
+					buf.asDoubleBuffer().put(column, i, n);
+					buf.position(buf.position() + n*8);
+					i += n;
+				}
+			}
+			for(int i = 0; i < count; ){
+				if(buf.remaining() < 4){
+					flush(ch, buf);
+				}
+				int n = Math.min(count - i, buf.remaining()/4);
+				buf.asIntBuffer().put(flags, i, n);
+				buf.position(buf.position() + n*4);
+				i += n;
+			}
+			flush(ch, buf);
+			ch.force(false);
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Read a checkpoint written by write()
+	 */
+	public static Checkpoint read(Path path) throws IOException {
+		Checkpoint c = new Checkpoint();
+		ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		buf.limit(0); // Nothing read yet
+		try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+			fill(ch, buf, 28);
+			if(buf.getInt() != MAGIC){
+				throw new IOException("Not a checkpoint: " + path);
+			}
+			int version = buf.getInt();
+			if(version != VERSION){
+				throw new IOException("Unsupported checkpoint version " + version + ": " + path);
+			}
+			c.frame = buf.getLong();
+			if(c.frame < 0 || c.frame > Integer.MAX_VALUE){
+				throw new IOException("Invalid frame " + c.frame + ": " + path);
+			}
+			c.deltaTime = buf.getDouble();
+			int colors = buf.getInt();
+			c.palette = new Color[colors];
+			for(int k = 0; k < colors; k++){
+				fill(ch, buf, 32);
+				c.palette[k] = getColor(buf);
+			}
+			fill(ch, buf, 4);
+			c.gravityCount = buf.getInt();
+			c.ensureGravity(c.gravityCount);
+			for(int j = 0; j < c.gravityCount; j++){
+				fill(ch, buf, 80);
+				c.gkind[j] = buf.getInt();
+				for(int k = 0; k < 5; k++){
+					c.gstate[5*j+k] = buf.getDouble();
+				}
+				c.gcolor[j] = getColor(buf);
+				c.gimpacts[j] = buf.getInt();
+			}
+			fill(ch, buf, 4);
+			c.count = buf.getInt();
+			c.ensureBodies(c.count);
+			for(double[] column : new double[][]{c.rx, c.ry, c.vx, c.vy, c.mass}){
+				for(int i = 0; i < c.count; ){
+					fill(ch, buf, 8);
+					int n = Math.min(c.count - i, buf.remaining()/8);
+					buf.asDoubleBuffer().get(column, i, n);
+					buf.position(buf.position() + n*8);
+					i += n;
+				}
+			}
+			for(int i = 0; i < c.count; ){
+				fill(ch, buf, 4);
+				int n = Math.min(c.count - i, buf.remaining()/4);
+				buf.asIntBuffer().get(c.flags, i, n);
+				buf.position(buf.position() + n*4);
+				i += n;
+			}
+		}
+		return c;
+	}
+
+	private static void putColor(ByteBuffer buf, Color c){
+		buf.putDouble(c.getRed()).putDouble(c.getGreen()).putDouble(c.getBlue()).putDouble(c.getOpacity());
+	}
+
+	private static Color getColor(ByteBuffer buf){
+		return new Color(buf.getDouble(), buf.getDouble(), buf.getDouble(), buf.getDouble());
+	}
+
+	// Write out what is in the buffer and make it ready for more
+	private static void flush(FileChannel ch, ByteBuffer buf) throws IOException {
+		buf.flip();
+		while(buf.hasRemaining()){
+			ch.write(buf);
+		}
+		buf.clear();
+	}
+
+	// Make sure at least n bytes can be read from the buffer, reading more from the file if needed
+	private static void fill(FileChannel ch, ByteBuffer buf, int n) throws IOException {
+		if(buf.remaining() >= n){
+			return;
+		}
+		buf.compact();
+		while(buf.position() < n){
+			if(ch.read(buf) < 0){
+				throw new IOException("Checkpoint file is truncated");
+			}
+		}
+		buf.flip();
+	}
+
+	private void ensureGravity(int n){
+		if(gkind.length < n){
+			gkind = new int[n];
+			gstate = new double[5*n];
+			gcolor = new Color[n];
+			gimpacts = new int[n];
+		}
+	}
+
+	private void ensureBodies(int n){
+		if(rx.length < n){
+			rx = new double[n];
+			ry = new double[n];
+			vx = new double[n];
+			vy = new double[n];
+			mass = new double[n];
+			flags = new int[n];
+		}
+	}
+
+}
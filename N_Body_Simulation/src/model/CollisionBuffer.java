@@ -0,0 +1,101 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Collisions found by the workers during a run, as pairs (i, j): body i of the store with gravity body j,
+ * or with body j of the store. Each worker slot records its own events, so the workers never write to shared
+ * bodies. The events are then handled on a single thread in sorted order, so the result doesn't depend on
+ * which chunks the workers happened to take.
+ */
+public class CollisionBuffer {
+
+	private int[][] bodies;  // Per slot: index of the body in the store
+	private int[][] targets; // Per slot: index of the body it collided with
+	private int[] counts;
+	private long[] merged = new long[0]; // The events of all slots after sort()
+
+	public CollisionBuffer(int slots){
+		bodies = new int[slots][16];
+		targets = new int[slots][16];
+		counts = new int[slots];
+	}
+
+	/**
+	 * Record that body i of the store collided with gravity body j. Only called by the worker owning the slot.
+	 */
+	public void add(int slot, int i, int j){
+		int n = counts[slot];
+		if(n == bodies[slot].length){
+			bodies[slot] = Arrays.copyOf(bodies[slot], n*2);
+			targets[slot] = Arrays.copyOf(targets[slot], n*2);
+		}
+		bodies[slot][n] = i;
+		targets[slot][n] = j;
+		counts[slot] = n + 1;
+	}
+
+	/**
+	 * Number of events recorded since the last clear()
+	 */
+	public int size(){
+		int sum = 0;
+		for(int n : counts){
+			sum += n;
+		}
+		return sum;
+	}
+
+	public void clear(){
+		Arrays.fill(counts, 0);
+	}
+
+	/**
+	 * Gather the events of all slots ordered on (i, j), without duplicates. Must be called when no worker
+	 * is running. The events are then read with first(k) and second(k) until the next clear().
+	 * @return the number of distinct events
+	 */
+	public int sort(){
+		int total = 0;
+		int size = size();
+		if(merged.length < size){
+			merged = new long[size];
+		}
+		for(int slot = 0; slot < counts.length; slot++){
+			for(int e = 0; e < counts[slot]; e++){
+				merged[total++] = ((long) bodies[slot][e] << 32) | targets[slot][e];
+			}
+		}
+		Arrays.sort(merged, 0, total);
+		int distinct = 0;
+		for(int k = 0; k < total; k++){
+			if(distinct == 0 || merged[k] != merged[distinct-1]){
+				merged[distinct++] = merged[k];
+			}
+		}
+		return distinct;
+	}
+
+	public int first(int k){
+		return (int) (merged[k] >>> 32);
+	}
+
+	public int second(int k){
+		return (int) merged[k];
+	}
+
+	/**
+	 * Add the mass of every body that collided with a gravity body to it and forget the events. Must be called
+	 * when no worker is running. The bodies stay in the store, marked as removed, until it is compacted.
+	 * @return the number of events applied
+	 */
+	public int apply(BodyStore store, GravityField field){
+		int total = sort();
+		for(int k = 0; k < total; k++){
+			field.bodies[second(k)].addBodyMass(store.mass(first(k)));
+		}
+		clear();
+		return total;
+	}
+
+}
@@ -0,0 +1,22 @@
+package model;
+
+/**
+ * Semi-implicit (symplectic) Euler: kick with the force at the start of the step, then drift.
+ * First order, one force evaluation per step.
+ */
+public class EulerIntegrator implements Integrator {
+
+	private static final double[] DRIFTS = {0.0, 1.0};
+	private static final double[] KICKS = {1.0};
+
+	@Override
+	public double[] getDrifts() {
+		return DRIFTS;
+	}
+
+	@Override
+	public double[] getKicks() {
+		return KICKS;
+	}
+
+}
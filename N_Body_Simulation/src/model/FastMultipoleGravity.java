@@ -0,0 +1,679 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Fast multipole approximation of the mutual gravity between all bodies in the store. The cost grows linearly with
+ * the number of bodies, and the error is controlled by the order of the expansions instead of only by the opening
+ * angle as in BarnesHutGravity.
+ *
+ * The bodies are sorted in an adaptive quadtree. Every cell gets a multipole expansion of its bodies around their
+ * center of mass, and the tree is traversed with itself: pairs of cells far enough apart (the sum of their radii
+ * below theta times their distance) exchange their multipoles as local expansions, nearby leaves are summed up
+ * directly. The local expansions are passed down the tree, so each body only needs the local expansion of its
+ * leaf and the bodies of the leaves next to it.
+ *
+ * The bodies move in a plane but attract each other with 1/r^2, so the potential is 1/|z| with z = x + iy. The
+ * expansions are in the complex powers z^j and conj(z)^k: 1/|z| = z^-1/2 conj(z)^-1/2 is a product of two
+ * analytic functions, whose derivatives are simple powers of z and conj(z). An expansion of order p keeps the terms
+ * with j + k <= p, so (p+1)(p+2)/2 complex coefficients per cell.
+ */
+public class FastMultipoleGravity implements GravityEngine {
+
+	public static final int DEFAULT_ORDER = 6;
+	public static final double DEFAULT_THETA = 0.5;
+
+	private static final double EPS = 3E4;      // softening parameter, the same as BarnesHutGravity
+	private static final int LEAF_SIZE = 64;    // Most bodies in a leaf
+	private static final int MAX_DEPTH = 48;    // Bodies closer than this are kept together in one leaf
+
+	private final int order;
+	private final int terms;                    // Coefficients of an expansion
+	private double theta;
+
+	// The operators as lists of index triples, so the inner loops need no index arithmetic.
+	// M2L: l[k] += m[k] * d[k], M2M: parent[k] += child[k] * t^a * conj(t)^b, L2L: child[k] += parent[k] * t^a * conj(t)^b
+	private final int[] m2lL, m2lM, m2lD;
+	private final boolean[] m2lOdd;             // (-1)^(j+k) of the derivative, for the opposite direction
+	private final int[] m2mP, m2mC, m2mA, m2mB;
+	private final int[] l2lC, l2lP, l2lA, l2lB;
+	private final double[] invFact;             // 1/k!
+	private final double[] rise;                // (-1/2)(-3/2)...(-1/2-j+1), the j-th derivative of z^-1/2 is rise[j] z^(-1/2-j)
+
+	// The bodies in the order of the tree, copied in prepare() so the workers can update the store while they are used
+	private int count;
+	private int[] sorted = new int[0];          // Index in the store of the body at each position
+	private int[] position = new int[0];        // Position of each body of the store
+	private int[] cellOf = new int[0];          // Leaf of each body of the store
+	private int[] scratch = new int[0];
+	private double[] px = new double[0], py = new double[0], pm = new double[0];
+	private double originX, originY, scale;     // Expansions use (x - origin)/scale, so the root has a half size of 1
+
+	// The cells. Children are contiguous: firstChild[c] .. firstChild[c] + children[c] - 1
+	private int cells;
+	private double[] cx, cy, half;              // Geometric center and half the side length, scaled
+	private double[] zx, zy, radius, mass;      // Center of mass, scaled, and the distance to the farthest body from it
+	private int[] parent, firstChild, children, start, end;
+	private double[] mre, mim, lre, lim;        // Multipole and local coefficients, terms per cell
+
+	// The leaves summed up directly with each leaf, including itself
+	private int[] nearStart = new int[0], near = new int[0];
+	private int[] pairA = new int[0], pairB = new int[0];
+	private int pairs;
+	private int[] stack = new int[0];
+
+	private final double[] dre, dim, wre, wim;  // Derivatives of 1/|z|, and powers of 1/z, used in prepare()
+	private final double[] tre, tim;            // Powers of a shift
+	private final ThreadLocal<double[]> powers;
+
+	public FastMultipoleGravity(){
+		this(DEFAULT_ORDER, DEFAULT_THETA);
+	}
+
+	/**
+	 * @param order highest power kept in the expansions, at least 1
+	 * @param theta opening angle, below 1
+	 */
+	public FastMultipoleGravity(int order, double theta){
+		this.order = Math.max(1, order);
+		this.terms = index(this.order + 1, 0);
+		setTheta(theta);
+		final int p = this.order;
+
+		invFact = new double[2*p + 3];
+		invFact[0] = 1.0;
+		for(int k = 1; k < invFact.length; k++){
+			invFact[k] = invFact[k-1]/k;
+		}
+		rise = new double[p + 3];
+		rise[0] = 1.0;
+		for(int j = 1; j < rise.length; j++){
+			rise[j] = rise[j-1]*(-0.5 - (j-1));
+		}
+
+		// The potential is real, so L(d, c) = conj(L(c, d)) and only the coefficients with c <= d are computed
+		int n = 0;
+		for(int c = 0; c <= p; c++) for(int d = c; c + d <= p; d++) for(int a = 0; a + c + d <= p; a++) for(int b = 0; a + b + c + d <= p; b++) n++;
+		m2lL = new int[n];
+		m2lM = new int[n];
+		m2lD = new int[n];
+		m2lOdd = new boolean[n];
+		n = 0;
+		for(int c = 0; c <= p; c++){
+			for(int d = c; c + d <= p; d++){
+				for(int a = 0; a + c + d <= p; a++){
+					for(int b = 0; a + b + c + d <= p; b++){
+						m2lL[n] = index(c, d);
+						m2lM[n] = index(a, b);
+						m2lD[n] = index(a + c, b + d);
+						m2lOdd[n] = ((a + b + c + d) & 1) != 0;
+						n++;
+					}
+				}
+			}
+		}
+
+		n = 0;
+		for(int a = 0; a <= p; a++) for(int b = 0; a + b <= p; b++) n += (a + 1)*(b + 1);
+		m2mP = new int[n];
+		m2mC = new int[n];
+		m2mA = new int[n];
+		m2mB = new int[n];
+		l2lC = new int[n];
+		l2lP = new int[n];
+		l2lA = new int[n];
+		l2lB = new int[n];
+		n = 0;
+		for(int a = 0; a <= p; a++){
+			for(int b = 0; a + b <= p; b++){
+				for(int a1 = 0; a1 <= a; a1++){
+					for(int b1 = 0; b1 <= b; b1++){
+						// Multipole (a, b) of the parent from (a1, b1) of the child
+						m2mP[n] = index(a, b);
+						m2mC[n] = index(a1, b1);
+						m2mA[n] = a - a1;
+						m2mB[n] = b - b1;
+						// Local (a1, b1) of the child from (a, b) of the parent
+						l2lC[n] = index(a1, b1);
+						l2lP[n] = index(a, b);
+						l2lA[n] = a - a1;
+						l2lB[n] = b - b1;
+						n++;
+					}
+				}
+			}
+		}
+
+		dre = new double[index(p + 2, 0)];
+		dim = new double[dre.length];
+		wre = new double[p + 2];
+		wim = new double[p + 2];
+		tre = new double[p + 1];
+		tim = new double[p + 1];
+		powers = new ThreadLocal<double[]>(){
+			@Override
+			protected double[] initialValue() {
+				return new double[2*(p + 1)];
+			}
+		};
+		allocateCells(1024);
+	}
+
+	// Index of the coefficient of z^j conj(z)^k
+	private static int index(int j, int k){
+		int n = j + k;
+		return n*(n + 1)/2 + k;
+	}
+
+	public int getOrder(){
+		return order;
+	}
+
+	public double getTheta(){
+		return theta;
+	}
+
+	public void setTheta(double theta){
+		this.theta = Math.max(0.01, Math.min(theta, 0.99));
+	}
+
+	@Override
+	public void prepare(BodyStore store) {
+		int n = store.size();
+		count = n;
+		if(sorted.length < n){
+			sorted = new int[n];
+			position = new int[n];
+			cellOf = new int[n];
+			scratch = new int[n];
+			px = new double[n];
+			py = new double[n];
+			pm = new double[n];
+		}
+		cells = 0;
+		pairs = 0;
+		if(n == 0){
+			return;
+		}
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for(int i = 0; i < n; i++){
+			sorted[i] = i;
+			double x = store.rx(i), y = store.ry(i);
+			if(x < minX) minX = x;
+			if(x > maxX) maxX = x;
+			if(y < minY) minY = y;
+			if(y > maxY) maxY = y;
+		}
+		originX = (minX + maxX)/2;
+		originY = (minY + maxY)/2;
+		scale = Math.max(maxX - minX, maxY - minY)/2 * 1.0001 + 1.0;
+
+		int root = newCell(-1, 0.0, 0.0, 1.0, 0, n);
+		build(store, root, 0);
+		for(int k = 0; k < n; k++){
+			int i = sorted[k];
+			position[i] = k;
+			px[k] = store.rx(i);
+			py[k] = store.ry(i);
+			pm[k] = store.isRemoved(i) ? 0.0 : store.mass(i);
+		}
+
+		upward();
+		traverse();
+		downward();
+	}
+
+	// Sort the bodies of a cell in its quadrants and create a child for every quadrant that is not empty
+	private void build(BodyStore store, int cell, int depth){
+		int s = start[cell], e = end[cell];
+		if(e - s <= LEAF_SIZE || depth >= MAX_DEPTH){
+			for(int k = s; k < e; k++){
+				cellOf[sorted[k]] = cell;
+			}
+			return;
+		}
+		int[] counts = new int[5];
+		for(int k = s; k < e; k++){
+			counts[quadrant(store, cell, sorted[k]) + 1]++;
+		}
+		for(int q = 1; q < 5; q++){
+			counts[q] += counts[q-1];
+		}
+		int[] next = counts.clone();
+		for(int k = s; k < e; k++){
+			int i = sorted[k];
+			scratch[s + next[quadrant(store, cell, i)]++] = i;
+		}
+		System.arraycopy(scratch, s, sorted, s, e - s);
+
+		double h = half[cell]/2;
+		int first = cells;
+		for(int q = 0; q < 4; q++){
+			if(counts[q+1] > counts[q]){
+				newCell(cell, cx[cell] + ((q & 1) != 0 ? h : -h), cy[cell] + ((q & 2) != 0 ? h : -h), h, s + counts[q], s + counts[q+1]);
+			}
+		}
+		firstChild[cell] = first;
+		children[cell] = cells - first;
+		for(int c = first; c < first + children[cell]; c++){
+			build(store, c, depth + 1);
+		}
+	}
+
+	private int quadrant(BodyStore store, int cell, int i){
+		double x = (store.rx(i) - originX)/scale, y = (store.ry(i) - originY)/scale;
+		return (x >= cx[cell] ? 1 : 0) + (y >= cy[cell] ? 2 : 0);
+	}
+
+	private int newCell(int parentCell, double x, double y, double h, int s, int e){
+		if(cells == cx.length){
+			allocateCells(cells*2);
+		}
+		int c = cells++;
+		parent[c] = parentCell;
+		cx[c] = x;
+		cy[c] = y;
+		half[c] = h;
+		start[c] = s;
+		end[c] = e;
+		firstChild[c] = -1;
+		children[c] = 0;
+		return c;
+	}
+
+	private void allocateCells(int capacity){
+		if(cx == null){
+			cx = new double[0];
+			cy = new double[0];
+			half = new double[0];
+			zx = new double[0];
+			zy = new double[0];
+			radius = new double[0];
+			mass = new double[0];
+			parent = new int[0];
+			firstChild = new int[0];
+			children = new int[0];
+			start = new int[0];
+			end = new int[0];
+			mre = new double[0];
+			mim = new double[0];
+			lre = new double[0];
+			lim = new double[0];
+			nearStart = new int[0];
+		}
+		cx = Arrays.copyOf(cx, capacity);
+		cy = Arrays.copyOf(cy, capacity);
+		half = Arrays.copyOf(half, capacity);
+		zx = Arrays.copyOf(zx, capacity);
+		zy = Arrays.copyOf(zy, capacity);
+		radius = Arrays.copyOf(radius, capacity);
+		mass = Arrays.copyOf(mass, capacity);
+		parent = Arrays.copyOf(parent, capacity);
+		firstChild = Arrays.copyOf(firstChild, capacity);
+		children = Arrays.copyOf(children, capacity);
+		start = Arrays.copyOf(start, capacity);
+		end = Arrays.copyOf(end, capacity);
+		mre = Arrays.copyOf(mre, capacity*terms);
+		mim = Arrays.copyOf(mim, capacity*terms);
+		lre = Arrays.copyOf(lre, capacity*terms);
+		lim = Arrays.copyOf(lim, capacity*terms);
+		nearStart = Arrays.copyOf(nearStart, capacity + 1);
+	}
+
+	// The multipoles from the leaves up to the root. Children come after their parent, so they are done first.
+	private void upward(){
+		Arrays.fill(mre, 0, cells*terms, 0.0);
+		Arrays.fill(mim, 0, cells*terms, 0.0);
+		for(int c = cells - 1; c >= 0; c--){
+			double m = 0.0, x = 0.0, y = 0.0;
+			if(children[c] == 0){
+				for(int k = start[c]; k < end[c]; k++){
+					m += pm[k];
+					x += pm[k]*(px[k] - originX)/scale;
+					y += pm[k]*(py[k] - originY)/scale;
+				}
+			} else {
+				for(int ch = firstChild[c]; ch < firstChild[c] + children[c]; ch++){
+					m += mass[ch];
+					x += mass[ch]*zx[ch];
+					y += mass[ch]*zy[ch];
+				}
+			}
+			mass[c] = m;
+			zx[c] = m > 0.0 ? x/m : cx[c];
+			zy[c] = m > 0.0 ? y/m : cy[c];
+
+			int base = c*terms;
+			double r = 0.0;
+			if(children[c] == 0){
+				for(int k = start[c]; k < end[c]; k++){
+					double sx = (px[k] - originX)/scale - zx[c], sy = (py[k] - originY)/scale - zy[c];
+					r = Math.max(r, Math.sqrt(sx*sx + sy*sy));
+					if(pm[k] == 0.0){
+						continue;
+					}
+					shiftPowers(-sx, -sy);
+					for(int a = 0; a <= order; a++){
+						for(int b = 0; a + b <= order; b++){
+							// m (-s)^a/a! conj(-s)^b/b!
+							double re = tre[a]*tre[b] + tim[a]*tim[b], im = tim[a]*tre[b] - tre[a]*tim[b];
+							mre[base + index(a, b)] += pm[k]*re;
+							mim[base + index(a, b)] += pm[k]*im;
+						}
+					}
+				}
+			} else {
+				for(int ch = firstChild[c]; ch < firstChild[c] + children[c]; ch++){
+					double tx = zx[ch] - zx[c], ty = zy[ch] - zy[c];
+					r = Math.max(r, Math.sqrt(tx*tx + ty*ty) + radius[ch]);
+					if(mass[ch] == 0.0){
+						continue;
+					}
+					shiftPowers(-tx, -ty);
+					int from = ch*terms;
+					for(int k = 0; k < m2mP.length; k++){
+						int a = m2mA[k], b = m2mB[k];
+						double sre = tre[a]*tre[b] + tim[a]*tim[b], sim = tim[a]*tre[b] - tre[a]*tim[b];
+						double ore = mre[from + m2mC[k]], oim = mim[from + m2mC[k]];
+						mre[base + m2mP[k]] += ore*sre - oim*sim;
+						mim[base + m2mP[k]] += ore*sim + oim*sre;
+					}
+				}
+			}
+			radius[c] = r;
+		}
+	}
+
+	// t^k/k! for k up to the order, in tre/tim
+	private void shiftPowers(double x, double y){
+		double re = 1.0, im = 0.0;
+		for(int k = 0; k <= order; k++){
+			tre[k] = re*invFact[k];
+			tim[k] = im*invFact[k];
+			double r = re*x - im*y;
+			im = re*y + im*x;
+			re = r;
+		}
+	}
+
+	// The derivatives D(j, k) of 1/|R| with j + k <= maxOrder, in dre/dim
+	private void derivatives(double x, double y, int maxOrder){
+		double r2 = x*x + y*y;
+		double inv = 1/Math.sqrt(r2);
+		// Powers of 1/R = conj(R)/|R|^2
+		double ure = x/r2, uim = -y/r2;
+		double re = 1.0, im = 0.0;
+		for(int j = 0; j <= maxOrder; j++){
+			wre[j] = re;
+			wim[j] = im;
+			double t = re*ure - im*uim;
+			im = re*uim + im*ure;
+			re = t;
+		}
+		for(int j = 0; j <= maxOrder; j++){
+			for(int k = 0; j + k <= maxOrder; k++){
+				// rise[j] rise[k] R^-j conj(R)^-k / |R|
+				double f = rise[j]*rise[k]*inv;
+				dre[index(j, k)] = f*(wre[j]*wre[k] + wim[j]*wim[k]);
+				dim[index(j, k)] = f*(wim[j]*wre[k] - wre[j]*wim[k]);
+			}
+		}
+	}
+
+	// Find the pairs of cells that are far enough apart for their expansions, and the leaves to sum up directly
+	private void traverse(){
+		Arrays.fill(lre, 0, cells*terms, 0.0);
+		Arrays.fill(lim, 0, cells*terms, 0.0);
+		int top = 0;
+		stack = ensure(stack, 2);
+		stack[top++] = 0;
+		stack[top++] = 0;
+		while(top > 0){
+			int b = stack[--top];
+			int a = stack[--top];
+			if(mass[a] == 0.0 && mass[b] == 0.0){
+				continue;
+			}
+			if(a == b){
+				if(children[a] == 0){
+					addPair(a, a);
+				} else {
+					int first = firstChild[a], last = first + children[a];
+					stack = ensure(stack, top + children[a]*children[a]*2);
+					for(int i = first; i < last; i++){
+						for(int j = i; j < last; j++){
+							stack[top++] = i;
+							stack[top++] = j;
+						}
+					}
+				}
+				continue;
+			}
+			double dx = zx[a] - zx[b], dy = zy[a] - zy[b];
+			double r = radius[a] + radius[b];
+			if(r*r < theta*theta*(dx*dx + dy*dy)){
+				multipoleToLocal(a, b, dx, dy);
+			} else if(children[a] == 0 && children[b] == 0){
+				addPair(a, b);
+			} else {
+				// Open the larger cell
+				if(children[b] == 0 || (children[a] > 0 && radius[a] >= radius[b])){
+					int t = a;
+					a = b;
+					b = t;
+				}
+				stack = ensure(stack, top + children[b]*2);
+				for(int c = firstChild[b]; c < firstChild[b] + children[b]; c++){
+					stack[top++] = a;
+					stack[top++] = c;
+				}
+			}
+		}
+
+		// The pairs as a list of near leaves per leaf
+		Arrays.fill(nearStart, 0, cells + 1, 0);
+		for(int k = 0; k < pairs; k++){
+			nearStart[pairA[k] + 1]++;
+			if(pairA[k] != pairB[k]){
+				nearStart[pairB[k] + 1]++;
+			}
+		}
+		for(int c = 0; c < cells; c++){
+			nearStart[c+1] += nearStart[c];
+		}
+		near = ensure(near, nearStart[cells]);
+		int[] next = Arrays.copyOf(nearStart, cells);
+		for(int k = 0; k < pairs; k++){
+			near[next[pairA[k]]++] = pairB[k];
+			if(pairA[k] != pairB[k]){
+				near[next[pairB[k]]++] = pairA[k];
+			}
+		}
+	}
+
+	private void addPair(int a, int b){
+		if(pairs == pairA.length){
+			pairA = Arrays.copyOf(pairA, Math.max(1024, pairs*2));
+			pairB = Arrays.copyOf(pairB, pairA.length);
+		}
+		pairA[pairs] = a;
+		pairB[pairs] = b;
+		pairs++;
+	}
+
+	private static int[] ensure(int[] array, int size){
+		return array.length >= size ? array : Arrays.copyOf(array, Math.max(size, array.length*2));
+	}
+
+	// The multipole of b to the local expansion of a and the other way around. (dx, dy) goes from b to a.
+	private void multipoleToLocal(int a, int b, double dx, double dy){
+		derivatives(dx, dy, order);
+		int ba = a*terms, bb = b*terms;
+		boolean toA = mass[b] > 0.0, toB = mass[a] > 0.0;
+		for(int k = 0; k < m2lL.length; k++){
+			double d1 = dre[m2lD[k]], d2 = dim[m2lD[k]];
+			int l = m2lL[k], m = m2lM[k];
+			if(toA){
+				double ore = mre[bb + m], oim = mim[bb + m];
+				lre[ba + l] += ore*d1 - oim*d2;
+				lim[ba + l] += ore*d2 + oim*d1;
+			}
+			if(toB){
+				// The derivatives from a to b only differ in sign
+				if(m2lOdd[k]){
+					d1 = -d1;
+					d2 = -d2;
+				}
+				double ore = mre[ba + m], oim = mim[ba + m];
+				lre[bb + l] += ore*d1 - oim*d2;
+				lim[bb + l] += ore*d2 + oim*d1;
+			}
+		}
+	}
+
+	// The local expansions from the root down to the leaves. Parents come before their children.
+	private void downward(){
+		for(int c = 0; c < cells; c++){
+			int base = c*terms;
+			for(int j = 1; j <= order; j++){
+				for(int k = 0; k < j && j + k <= order; k++){
+					lre[base + index(j, k)] = lre[base + index(k, j)];
+					lim[base + index(j, k)] = -lim[base + index(k, j)];
+				}
+			}
+		}
+		for(int c = 1; c < cells; c++){
+			int p = parent[c];
+			shiftPowers(zx[c] - zx[p], zy[c] - zy[p]);
+			int from = p*terms, to = c*terms;
+			for(int k = 0; k < l2lC.length; k++){
+				int a = l2lA[k], b = l2lB[k];
+				double sre = tre[a]*tre[b] + tim[a]*tim[b], sim = tim[a]*tre[b] - tre[a]*tim[b];
+				double ore = lre[from + l2lP[k]], oim = lim[from + l2lP[k]];
+				lre[to + l2lC[k]] += ore*sre - oim*sim;
+				lim[to + l2lC[k]] += ore*sim + oim*sre;
+			}
+		}
+	}
+
+	@Override
+	public void addForce(BodyStore store, int i) {
+		if(i >= count){
+			return;
+		}
+		double x = store.rx(i), y = store.ry(i);
+		int self = position[i];
+		int leaf = cellOf[i];
+
+		// The leaves close by, directly
+		double ax = 0.0, ay = 0.0;
+		for(int k = nearStart[leaf]; k < nearStart[leaf+1]; k++){
+			int other = near[k];
+			for(int b = start[other]; b < end[other]; b++){
+				if(b == self || pm[b] == 0.0){
+					continue;
+				}
+				double bx = px[b] - x;
+				double by = py[b] - y;
+				double d2 = bx*bx + by*by;
+				if(d2 == 0.0){
+					continue;
+				}
+				double d = Math.sqrt(d2);
+				double a = (BodySystem.G * pm[b]) / (d2 + EPS*EPS);
+				ax += a * bx / d;
+				ay += a * by / d;
+			}
+		}
+
+		// Everything else from the local expansion of the leaf: the gradient is 2 d/dconj(h) of sum L(c, d) h^c conj(h)^d / c!d!
+		double[] h = powers.get();
+		double hx = (x - originX)/scale - zx[leaf], hy = (y - originY)/scale - zy[leaf];
+		double re = 1.0, im = 0.0;
+		for(int k = 0; k < order; k++){
+			h[2*k] = re*invFact[k];
+			h[2*k+1] = im*invFact[k];
+			double t = re*hx - im*hy;
+			im = re*hy + im*hx;
+			re = t;
+		}
+		int base = leaf*terms;
+		double gre = 0.0, gim = 0.0;
+		for(int c = 0; c < order; c++){
+			for(int d = 0; c + d < order; d++){
+				// h^c/c! conj(h)^d/d!
+				double pre = h[2*c]*h[2*d] + h[2*c+1]*h[2*d+1], pim = h[2*c+1]*h[2*d] - h[2*c]*h[2*d+1];
+				double lr = lre[base + index(c, d + 1)], li = lim[base + index(c, d + 1)];
+				gre += lr*pre - li*pim;
+				gim += lr*pim + li*pre;
+			}
+		}
+		double f = 2*BodySystem.G/(scale*scale);
+		ax += f*gre;
+		ay += f*gim;
+
+		double m = store.mass(i);
+		store.setForce(i, store.fx(i) + m*ax, store.fy(i) + m*ay);
+	}
+
+	/**
+	 * The gravity bodies are few and may be outside the tree, so they walk it like in Barnes-Hut, using the
+	 * multipole of every cell far enough away. Not called concurrently.
+	 */
+	@Override
+	public void addForce(Body body) {
+		if(cells == 0){
+			return;
+		}
+		double x = (body.rx - originX)/scale, y = (body.ry - originY)/scale;
+		double ax = 0.0, ay = 0.0;   // Directly, in m/s^2
+		double gre = 0.0, gim = 0.0; // From the multipoles, scaled
+		int top = 0;
+		stack = ensure(stack, 1);
+		stack[top++] = 0;
+		while(top > 0){
+			int c = stack[--top];
+			if(mass[c] == 0.0){
+				continue;
+			}
+			double dx = x - zx[c], dy = y - zy[c];
+			double r = radius[c];
+			if(r*r < theta*theta*(dx*dx + dy*dy)){
+				// The gradient of sum M(a, b) D(a, b)(R) is 2 sum M(a, b) D(a, b + 1)(R)
+				derivatives(dx, dy, order + 1);
+				int base = c*terms;
+				for(int a = 0; a <= order; a++){
+					for(int b = 0; a + b <= order; b++){
+						double ore = mre[base + index(a, b)], oim = mim[base + index(a, b)];
+						double d1 = dre[index(a, b + 1)], d2 = dim[index(a, b + 1)];
+						gre += ore*d1 - oim*d2;
+						gim += ore*d2 + oim*d1;
+					}
+				}
+			} else if(children[c] > 0){
+				stack = ensure(stack, top + children[c]);
+				for(int ch = firstChild[c]; ch < firstChild[c] + children[c]; ch++){
+					stack[top++] = ch;
+				}
+			} else {
+				for(int b = start[c]; b < end[c]; b++){
+					double bx = px[b] - body.rx;
+					double by = py[b] - body.ry;
+					double d2 = bx*bx + by*by;
+					if(d2 == 0.0){
+						continue;
+					}
+					double d = Math.sqrt(d2);
+					double a = (BodySystem.G * pm[b]) / (d2 + EPS*EPS);
+					ax += a * bx / d;
+					ay += a * by / d;
+				}
+			}
+		}
+		double f = 2*BodySystem.G/(scale*scale);
+		body.fx += body.mass*(ax + f*gre);
+		body.fy += body.mass*(ay + f*gim);
+	}
+
+}
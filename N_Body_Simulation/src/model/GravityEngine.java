@@ -0,0 +1,26 @@
+package model;
+
+/**
+ * Computes the gravity the non gravity bodies (asteroids & comets) exert on each other and on the
+ * gravity bodies. Without an engine the bodies in the store are treated as massless test particles.
+ */
+public interface GravityEngine {
+
+	/**
+	 * Build whatever the engine needs from the current positions in the store.
+	 * Called once per update before any forces are added.
+	 */
+	void prepare(BodyStore store);
+
+	/**
+	 * Add the gravity from all the other bodies in the store to the force on body i.
+	 * Called concurrently from the workers, each with its own range of bodies.
+	 */
+	void addForce(BodyStore store, int i);
+
+	/**
+	 * Add the gravity from all the bodies in the store to the force on a gravity body
+	 */
+	void addForce(Body b);
+
+}
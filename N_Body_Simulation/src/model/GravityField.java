@@ -0,0 +1,139 @@
+package model;
+
+import java.util.ArrayList;
+
+/**
+ * Snapshot of the gravity bodies (stars, planets & black holes) used by the workers.
+ * The workers read the positions from the primitive arrays, so the gravity bodies themselves can be
+ * updated by the main thread at the same time.
+ *
+ * The positions are kept for a number of points in time. With snapshot() there is a single point: the
+ * current positions. With begin() and interpolate() there is a point for every stage of every substep of
+ * the integrator at each substep level, interpolated between the start and the end of the update.
+ */
+public class GravityField {
+
+	public Body[] bodies;        // The gravity bodies at the time of the snapshot
+	public double[] mass;        // masses
+	public double[] gm;          // G*mass
+	public int count;
+	public double[] rx, ry;      // positions: body j at point p is at [p*count + j]
+
+	private double[] x0, y0, vx0, vy0; // state at the start of the update
+	private int stages;          // Number of kicks in the integrator used by interpolate()
+
+	public GravityField(){
+		bodies = new Body[0];
+		mass = new double[0];
+		gm = new double[0];
+		x0 = new double[0];
+		y0 = new double[0];
+		vx0 = new double[0];
+		vy0 = new double[0];
+		rx = new double[0];
+		ry = new double[0];
+		count = 0;
+		stages = 1;
+	}
+
+	/**
+	 * Take the current positions as the only point in time
+	 */
+	public void snapshot(ArrayList<Body> gravityBodies){
+		begin(gravityBodies);
+		stages = 1;
+		ensurePoints(1);
+		System.arraycopy(x0, 0, rx, 0, count);
+		System.arraycopy(y0, 0, ry, 0, count);
+	}
+
+	/**
+	 * Remember the state of the gravity bodies at the start of an update
+	 */
+	public void begin(ArrayList<Body> gravityBodies){
+		count = gravityBodies.size();
+		if(bodies.length < count){
+			bodies = new Body[count];
+			mass = new double[count];
+			gm = new double[count];
+			x0 = new double[count];
+			y0 = new double[count];
+			vx0 = new double[count];
+			vy0 = new double[count];
+		}
+		for(int j = 0; j < count; j++){
+			Body b = gravityBodies.get(j);
+			bodies[j] = b;
+			mass[j] = b.mass;
+			gm[j] = BodySystem.G*b.mass;
+			x0[j] = b.rx;
+			y0[j] = b.ry;
+			vx0[j] = b.vx;
+			vy0[j] = b.vy;
+		}
+	}
+
+	/**
+	 * Fill in the positions at every stage of every substep for the levels 0..maxLevel, where level L
+	 * splits the update in 2^L substeps. The gravity bodies must have been advanced to the end of the update.
+	 * The path between the start and the end state is a cubic Hermite curve.
+	 */
+	public void interpolate(double dt, Integrator integrator, int maxLevel){
+		double[] drifts = integrator.getDrifts();
+		stages = integrator.getKicks().length;
+		ensurePoints(point(maxLevel+1, 0, 0));
+		for(int level = 0; level <= maxLevel; level++){
+			int substeps = 1 << level;
+			for(int m = 0; m < substeps; m++){
+				double time = m;
+				for(int s = 0; s < stages; s++){
+					time += drifts[s];
+					double u = time/substeps; // Fraction of the update
+					double u2 = u*u, u3 = u2*u;
+					double h00 = 2*u3 - 3*u2 + 1;
+					double h10 = (u3 - 2*u2 + u)*dt;
+					double h01 = -2*u3 + 3*u2;
+					double h11 = (u3 - u2)*dt;
+					int base = point(level, m, s)*count;
+					for(int j = 0; j < count; j++){
+						Body b = bodies[j];
+						rx[base+j] = h00*x0[j] + h10*vx0[j] + h01*b.rx + h11*b.vx;
+						ry[base+j] = h00*y0[j] + h10*vy0[j] + h01*b.ry + h11*b.vy;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The index of the point in time at stage s of substep m at the given level
+	 */
+	public int point(int level, int m, int s){
+		return (((1 << level) - 1) + m)*stages + s;
+	}
+
+	/**
+	 * The shortest dynamical time scale squared, r^3/(G*M), of a body at (x, y) at the start of the update
+	 */
+	public double dynamicalTime2(double x, double y){
+		double min = Double.MAX_VALUE;
+		for(int j = 0; j < count; j++){
+			double dx = x0[j] - x;
+			double dy = y0[j] - y;
+			double r2 = dx*dx + dy*dy;
+			double t2 = r2*Math.sqrt(r2)/(BodySystem.G*mass[j]);
+			if(t2 < min){
+				min = t2;
+			}
+		}
+		return min;
+	}
+
+	private void ensurePoints(int points){
+		if(rx.length < points*count){
+			rx = new double[points*count];
+			ry = new double[points*count];
+		}
+	}
+
+}
@@ -0,0 +1,21 @@
+package model;
+
+/**
+ * A drift-kick splitting scheme used to advance the bodies one timestep dt.
+ * A step is: drift(c[0]*dt), kick(d[0]*dt), drift(c[1]*dt), kick(d[1]*dt), ..., drift(c[k]*dt)
+ * where a drift moves the bodies with their current velocity, and a kick changes the velocities
+ * with the forces evaluated at the current positions.
+ */
+public interface Integrator {
+
+	/**
+	 * The drift coefficients c[0..k]. One more than the kick coefficients.
+	 */
+	double[] getDrifts();
+
+	/**
+	 * The kick coefficients d[0..k-1]. One force evaluation is needed per kick.
+	 */
+	double[] getKicks();
+
+}
@@ -0,0 +1,117 @@
+package model;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in buckets that grow with the value, like HdrHistogram: every power of two is split in
+ * SUB_BUCKETS buckets, so a percentile is off by at most 1/SUB_BUCKETS (about 3%) of its value, from nanoseconds
+ * up to hours, in a fixed array. Recording is a few atomic increments without allocation or locks, and the
+ * percentiles can be read from any thread while the durations are recorded.
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+	private static final int SUB_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS + 1)*SUB_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong(); // Sum of the recorded durations
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Count a duration
+	 */
+	public void record(long nanos){
+		if(nanos < 0){
+			nanos = 0;
+		}
+		counts.incrementAndGet(index(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long m = max.get();
+		while(nanos > m && !max.compareAndSet(m, nanos)){
+			m = max.get();
+		}
+	}
+
+	// The values below SUB_BUCKETS have a bucket each, above that the top SUB_BITS bits below the highest one pick the bucket
+	private static int index(long v){
+		if(v < SUB_BUCKETS){
+			return (int) v;
+		}
+		int exp = 63 - Long.numberOfLeadingZeros(v);
+		int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exp - SUB_BITS + 1)*SUB_BUCKETS + sub;
+	}
+
+	// The highest value counted in the bucket
+	private static long highest(int index){
+		if(index < SUB_BUCKETS){
+			return index;
+		}
+		int exp = index/SUB_BUCKETS + SUB_BITS - 1;
+		long sub = index % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1) << (exp - SUB_BITS)) - 1;
+	}
+
+	/**
+	 * The duration that the given fraction of the recorded ones doesn't exceed, in nanoseconds
+	 * @param p e.g. 0.99 for the 99th percentile
+	 */
+	public long percentile(double p){
+		long n = count.get();
+		if(n == 0){
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(p*n));
+		long seen = 0;
+		for(int i = 0; i < counts.length(); i++){
+			seen += counts.get(i);
+			if(seen >= rank){
+				return Math.min(highest(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	@Override
+	public long getCount(){
+		return count.get();
+	}
+
+	@Override
+	public double getMeanMicros(){
+		long n = count.get();
+		return n == 0 ? 0.0 : total.get()/1e3/n;
+	}
+
+	@Override
+	public double getP50Micros(){
+		return percentile(0.50)/1e3;
+	}
+
+	@Override
+	public double getP99Micros(){
+		return percentile(0.99)/1e3;
+	}
+
+	@Override
+	public double getMaxMicros(){
+		return max.get()/1e3;
+	}
+
+	/**
+	 * Forget all recorded durations
+	 */
+	@Override
+	public void reset(){
+		for(int i = 0; i < counts.length(); i++){
+			counts.set(i, 0);
+		}
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+}
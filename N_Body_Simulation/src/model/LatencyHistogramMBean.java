@@ -0,0 +1,20 @@
+package model;
+
+/**
+ * The view of a LatencyHistogram in JMX, e.g. in JConsole or Java Mission Control
+ */
+public interface LatencyHistogramMBean {
+
+	long getCount();
+
+	double getMeanMicros();
+
+	double getP50Micros();
+
+	double getP99Micros();
+
+	double getMaxMicros();
+
+	void reset();
+
+}
@@ -0,0 +1,22 @@
+package model;
+
+/**
+ * Leapfrog (drift-kick-drift / velocity Verlet). Second order and time reversible,
+ * so the energy of the orbits does not drift. One force evaluation per step.
+ */
+public class LeapfrogIntegrator implements Integrator {
+
+	private static final double[] DRIFTS = {0.5, 0.5};
+	private static final double[] KICKS = {1.0};
+
+	@Override
+	public double[] getDrifts() {
+		return DRIFTS;
+	}
+
+	@Override
+	public double[] getKicks() {
+		return KICKS;
+	}
+
+}
@@ -0,0 +1,376 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Particle-mesh approximation of the mutual gravity between all bodies in the store, for many bodies in a disk.
+ * The masses are spread over a square grid around the bodies (cloud in cell), the potential on the grid is the
+ * convolution of the masses with the potential of a unit mass, done with FFTs, and the force on each body is
+ * interpolated from the gradient of the potential at the four grid points around it.
+ *
+ * The bodies move in a plane but attract each other with 1/r^2, so the grid is convolved with -G/r directly,
+ * softened by one grid spacing, instead of solving the 2D Poisson equation. The grid is padded to twice its size
+ * so the convolution does not wrap around. The spacing only takes the values GROWTH^k, so the transform of the
+ * potential of a unit mass only has to be redone when the bodies spread out or come together a lot.
+ *
+ * The deposit and the FFTs run on the workers of a StepExecutor, which are idle while an engine is prepared.
+ * The interpolation runs in addForce(), which the workers call for their own bodies.
+ */
+public class ParticleMeshGravity implements GravityEngine, StepExecutor.RangeTask {
+
+	public static final int DEFAULT_GRID = 512;
+
+	private static final int MARGIN = 4;        // Grid points kept free between the bodies and the edge
+	private static final double GROWTH = 1.25;  // Ratio between the possible grid spacings
+	private static final int ROW_CHUNK = 8;     // Rows of the grid claimed at a time by a worker
+	private static final int BODY_CHUNK = 1024; // Bodies claimed at a time by a worker
+
+	private enum Phase { DEPOSIT, REDUCE, ROWS, COLUMNS, GRADIENT }
+
+	private final int n;                        // Grid points per side
+	private final int m;                        // Points per side of the padded grid
+	private final StepExecutor executor;        // null to do everything on the calling thread
+	private final int slots;
+
+	private double spacing, originX, originY;   // Grid point (i, j) is at (originX + i*spacing, originY + j*spacing)
+	private double kernelSpacing;               // The spacing the kernel was transformed for
+	private final double[] kre, kim;            // FFT of the potential of a unit mass on the padded grid
+	private final double[] re, im;              // The padded masses, their FFT, then the potential
+	private final double[][] deposits;          // Masses spread by each worker, n*n
+	private final double[] gx, gy;              // Acceleration at the grid points, n*n
+	private final double[][] columnRe, columnIm; // Column being transformed, per worker
+	private final double[] cos, sin;            // exp(-2 pi i k/m) for k < m/2
+	private final int[] reversed;               // Bit reversed index for the FFT
+
+	// The bodies, copied in prepare() so the workers can update the store while the grid is used
+	private int count;
+	private double[] px = new double[0], py = new double[0], pm = new double[0];
+	private double totalMass, comX, comY;
+
+	private final ThreadLocal<double[]> accelerations = new ThreadLocal<double[]>(){
+		@Override
+		protected double[] initialValue() {
+			return new double[2];
+		}
+	};
+
+	// The current phase
+	private Phase phase;
+	private double[] fftRe, fftIm;              // Array the ROWS and COLUMNS phases transform
+	private boolean inverse;                    // Direction of the ROWS phase
+	private boolean convolve;                   // COLUMNS: multiply by the kernel and transform back
+
+	public ParticleMeshGravity(StepExecutor executor){
+		this(DEFAULT_GRID, executor);
+	}
+
+	/**
+	 * @param grid number of grid points per side, rounded up to a power of two
+	 * @param executor workers for the deposit and the FFTs, e.g. BodySystem.getExecutor(), or null
+	 */
+	public ParticleMeshGravity(int grid, StepExecutor executor){
+		int size = 16;
+		while(size < grid){
+			size *= 2;
+		}
+		this.n = size;
+		this.m = 2*size;
+		this.executor = executor;
+		this.slots = executor != null ? executor.getSlotCount() : 1;
+		kre = new double[m*m];
+		kim = new double[m*m];
+		re = new double[m*m];
+		im = new double[m*m];
+		deposits = new double[slots][n*n];
+		gx = new double[n*n];
+		gy = new double[n*n];
+		columnRe = new double[slots][m];
+		columnIm = new double[slots][m];
+		cos = new double[m/2];
+		sin = new double[m/2];
+		for(int k = 0; k < m/2; k++){
+			cos[k] = Math.cos(2*Math.PI*k/m);
+			sin[k] = -Math.sin(2*Math.PI*k/m);
+		}
+		reversed = new int[m];
+		int bits = Integer.numberOfTrailingZeros(m);
+		for(int k = 0; k < m; k++){
+			reversed[k] = Integer.reverse(k) >>> (32 - bits);
+		}
+	}
+
+	public int getGridSize(){
+		return n;
+	}
+
+	@Override
+	public void prepare(BodyStore store) {
+		int size = store.size();
+		count = size;
+		if(px.length < size){
+			px = new double[size];
+			py = new double[size];
+			pm = new double[size];
+		}
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		double mass = 0.0, x = 0.0, y = 0.0;
+		for(int i = 0; i < size; i++){
+			px[i] = store.rx(i);
+			py[i] = store.ry(i);
+			pm[i] = store.isRemoved(i) ? 0.0 : store.mass(i);
+			mass += pm[i];
+			x += pm[i]*px[i];
+			y += pm[i]*py[i];
+			if(px[i] < minX) minX = px[i];
+			if(px[i] > maxX) maxX = px[i];
+			if(py[i] < minY) minY = py[i];
+			if(py[i] > maxY) maxY = py[i];
+		}
+		totalMass = mass;
+		comX = mass > 0.0 ? x/mass : 0.0;
+		comY = mass > 0.0 ? y/mass : 0.0;
+		if(size == 0){
+			return;
+		}
+
+		// The smallest allowed spacing that keeps the bodies MARGIN points away from the edges
+		double extent = Math.max(Math.max(maxX - minX, maxY - minY), 1.0);
+		double needed = extent/(n - 2*MARGIN);
+		spacing = Math.pow(GROWTH, Math.ceil(Math.log(needed)/Math.log(GROWTH)));
+		if(spacing < needed){
+			spacing *= GROWTH; // Rounding of the logarithm
+		}
+		originX = (minX + maxX)/2 - (n/2)*spacing;
+		originY = (minY + maxY)/2 - (n/2)*spacing;
+		if(spacing != kernelSpacing){
+			transformKernel();
+			kernelSpacing = spacing;
+		}
+
+		run(Phase.DEPOSIT, size, BODY_CHUNK);
+		run(Phase.REDUCE, m, ROW_CHUNK);
+		// Only the first n rows hold masses, the FFT of the others is 0
+		transformRows(re, im, n, false);
+		fftRe = re;
+		fftIm = im;
+		convolve = true;
+		run(Phase.COLUMNS, m, ROW_CHUNK);
+		// Only the potential in the first n rows is needed
+		transformRows(re, im, n, true);
+		run(Phase.GRADIENT, n, ROW_CHUNK);
+	}
+
+	// The FFT of -G/r on the padded grid, with the offsets past half the grid wrapping around to negative ones
+	private void transformKernel(){
+		double eps2 = spacing*spacing;
+		for(int j = 0; j < m; j++){
+			double dy = (j <= m/2 ? j : j - m)*spacing;
+			for(int i = 0; i < m; i++){
+				double dx = (i <= m/2 ? i : i - m)*spacing;
+				kre[j*m + i] = -BodySystem.G/Math.sqrt(dx*dx + dy*dy + eps2);
+				kim[j*m + i] = 0.0;
+			}
+		}
+		transformRows(kre, kim, m, false);
+		fftRe = kre;
+		fftIm = kim;
+		convolve = false;
+		run(Phase.COLUMNS, m, ROW_CHUNK);
+	}
+
+	private void transformRows(double[] r, double[] i, int rows, boolean inverse){
+		fftRe = r;
+		fftIm = i;
+		this.inverse = inverse;
+		run(Phase.ROWS, rows, ROW_CHUNK);
+	}
+
+	private void run(Phase phase, int size, int minChunk){
+		this.phase = phase;
+		if(executor == null){
+			run(0, size, 0);
+		} else {
+			executor.invoke(size, minChunk, this);
+		}
+	}
+
+	@Override
+	public void run(int from, int to, int worker) {
+		switch(phase){
+		case DEPOSIT:
+			deposit(from, to, deposits[worker]);
+			break;
+		case REDUCE:
+			reduce(from, to);
+			break;
+		case ROWS:
+			for(int row = from; row < to; row++){
+				fft(fftRe, fftIm, row*m, inverse);
+			}
+			break;
+		case COLUMNS:
+			for(int column = from; column < to; column++){
+				transformColumn(column, columnRe[worker], columnIm[worker]);
+			}
+			break;
+		case GRADIENT:
+			gradient(from, to);
+			break;
+		}
+	}
+
+	// Spread the mass of each body over the four grid points around it, in proportion to how close they are
+	private void deposit(int from, int to, double[] grid){
+		for(int b = from; b < to; b++){
+			if(pm[b] == 0.0){
+				continue;
+			}
+			double fx = (px[b] - originX)/spacing, fy = (py[b] - originY)/spacing;
+			int i = (int) fx, j = (int) fy;
+			double wx = fx - i, wy = fy - j;
+			int k = j*n + i;
+			grid[k] += pm[b]*(1 - wx)*(1 - wy);
+			grid[k+1] += pm[b]*wx*(1 - wy);
+			grid[k+n] += pm[b]*(1 - wx)*wy;
+			grid[k+n+1] += pm[b]*wx*wy;
+		}
+	}
+
+	// Sum up the masses of the workers into the padded grid, and clear them for the next update
+	private void reduce(int from, int to){
+		for(int row = from; row < to; row++){
+			int k = row*m;
+			Arrays.fill(im, k, k + m, 0.0);
+			if(row >= n){
+				Arrays.fill(re, k, k + m, 0.0);
+				continue;
+			}
+			Arrays.fill(re, k + n, k + m, 0.0);
+			for(int i = 0; i < n; i++){
+				double sum = 0.0;
+				for(int s = 0; s < slots; s++){
+					sum += deposits[s][row*n + i];
+					deposits[s][row*n + i] = 0.0;
+				}
+				re[k + i] = sum;
+			}
+		}
+	}
+
+	private void transformColumn(int column, double[] cr, double[] ci){
+		for(int row = 0; row < m; row++){
+			cr[row] = fftRe[row*m + column];
+			ci[row] = fftIm[row*m + column];
+		}
+		fft(cr, ci, 0, false);
+		if(convolve){
+			for(int row = 0; row < m; row++){
+				double ar = cr[row], ai = ci[row];
+				double br = kre[row*m + column], bi = kim[row*m + column];
+				cr[row] = ar*br - ai*bi;
+				ci[row] = ar*bi + ai*br;
+			}
+			fft(cr, ci, 0, true);
+		}
+		for(int row = 0; row < m; row++){
+			fftRe[row*m + column] = cr[row];
+			fftIm[row*m + column] = ci[row];
+		}
+	}
+
+	// In place radix 2 FFT of the m values from off. The inverse is not divided by m.
+	private void fft(double[] r, double[] i, int off, boolean inverse){
+		for(int k = 0; k < m; k++){
+			int l = reversed[k];
+			if(l > k){
+				double t = r[off+k];
+				r[off+k] = r[off+l];
+				r[off+l] = t;
+				t = i[off+k];
+				i[off+k] = i[off+l];
+				i[off+l] = t;
+			}
+		}
+		double sign = inverse ? -1.0 : 1.0;
+		for(int len = 2; len <= m; len *= 2){
+			int half = len/2, step = m/len;
+			for(int s = 0; s < m; s += len){
+				for(int k = 0; k < half; k++){
+					double wr = cos[k*step], wi = sign*sin[k*step];
+					int a = off + s + k, b = a + half;
+					double tr = r[b]*wr - i[b]*wi;
+					double ti = r[b]*wi + i[b]*wr;
+					r[b] = r[a] - tr;
+					i[b] = i[a] - ti;
+					r[a] += tr;
+					i[a] += ti;
+				}
+			}
+		}
+	}
+
+	// The acceleration at the grid points, minus the gradient of the potential, by central differences
+	private void gradient(int from, int to){
+		double f = 1.0/((double) m*m)/(2*spacing); // The inverse FFTs were not normalized
+		for(int j = from; j < to; j++){
+			for(int i = 0; i < n; i++){
+				int k = j*n + i;
+				if(i == 0 || j == 0 || i == n-1 || j == n-1){
+					gx[k] = 0.0;
+					gy[k] = 0.0;
+					continue;
+				}
+				int p = j*m + i;
+				gx[k] = -(re[p+1] - re[p-1])*f;
+				gy[k] = -(re[p+m] - re[p-m])*f;
+			}
+		}
+	}
+
+	@Override
+	public void addForce(BodyStore store, int i) {
+		if(i >= count){
+			return;
+		}
+		double mass = store.mass(i);
+		double[] a = interpolate(store.rx(i), store.ry(i), accelerations.get());
+		store.setForce(i, store.fx(i) + mass*a[0], store.fy(i) + mass*a[1]);
+	}
+
+	@Override
+	public void addForce(Body b) {
+		if(count == 0){
+			return;
+		}
+		double[] a = interpolate(b.rx, b.ry, accelerations.get());
+		b.fx += b.mass*a[0];
+		b.fy += b.mass*a[1];
+	}
+
+	// The acceleration at (x, y) from the four grid points around it, or from all the mass at the center of mass
+	// if it is outside the grid
+	private double[] interpolate(double x, double y, double[] a){
+		double fx = (x - originX)/spacing, fy = (y - originY)/spacing;
+		if(fx < 1 || fy < 1 || fx >= n - 2 || fy >= n - 2){
+			a[0] = 0.0;
+			a[1] = 0.0;
+			double dx = comX - x, dy = comY - y;
+			double d2 = dx*dx + dy*dy;
+			if(d2 > 0.0){
+				double d = Math.sqrt(d2);
+				double g = BodySystem.G*totalMass/(d2 + spacing*spacing);
+				a[0] = g*dx/d;
+				a[1] = g*dy/d;
+			}
+			return a;
+		}
+		int i = (int) fx, j = (int) fy;
+		double wx = fx - i, wy = fy - j;
+		int k = j*n + i;
+		a[0] = gx[k]*(1 - wx)*(1 - wy) + gx[k+1]*wx*(1 - wy) + gx[k+n]*(1 - wx)*wy + gx[k+n+1]*wx*wy;
+		a[1] = gy[k]*(1 - wx)*(1 - wy) + gy[k+1]*wx*(1 - wy) + gy[k+n]*(1 - wx)*wy + gy[k+n+1]*wx*wy;
+		return a;
+	}
+
+}
@@ -0,0 +1,220 @@
+package model;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Advances a BodySystem on its own thread, independent of any GUI. Runs as fast as possible,
+ * or at a fixed number of updates per second, for a given number of updates or until stopped.
+ *
+ * The rate of the updates is independent of the rate of the snapshots: with more updates than snapshots
+ * per second, several smaller updates are done for every frame drawn. The time owed to the fixed update rate
+ * is accumulated, and after a slow update the missed updates are done back to back without publishing the
+ * snapshots in between, up to maxStepsPerSnapshot. Beyond that the simulation slows down instead.
+ */
+public class SimulationRunner implements Runnable {
+
+	/**
+	 * Notified on the runner thread after every update
+	 */
+	public interface Listener {
+		void updated(BodySystem sys, long step);
+	}
+
+	private final BodySystem sys;
+	private final CopyOnWriteArrayList<Listener> listeners;
+	private volatile double stepsPerSecond; // 0 = as fast as possible
+	private volatile double snapshotsPerSecond; // 0 = after every update
+	private volatile int maxStepsPerSnapshot = 8;
+	private volatile long maxSteps;         // 0 = until stopped
+	private volatile boolean running;
+	private volatile long steps;            // Updates done since start()
+	private volatile long startTime, endTime;
+	private volatile SnapshotBuffer snapshots; // Receives a snapshot after every update, if set
+	private Thread thread;
+
+	public SimulationRunner(BodySystem sys){
+		this.sys = sys;
+		this.listeners = new CopyOnWriteArrayList<Listener>();
+	}
+
+	public void setStepsPerSecond(double stepsPerSecond){
+		this.stepsPerSecond = Math.max(0.0, stepsPerSecond);
+	}
+
+	/**
+	 * How often a snapshot is published. 0 to publish one after every update.
+	 */
+	public void setSnapshotsPerSecond(double snapshotsPerSecond){
+		this.snapshotsPerSecond = Math.max(0.0, snapshotsPerSecond);
+	}
+
+	/**
+	 * Most updates done in a row to catch up with the update rate before a snapshot is published
+	 */
+	public void setMaxStepsPerSnapshot(int maxStepsPerSnapshot){
+		this.maxStepsPerSnapshot = Math.max(1, maxStepsPerSnapshot);
+	}
+
+	public void setMaxSteps(long maxSteps){
+		this.maxSteps = Math.max(0, maxSteps);
+	}
+
+	/**
+	 * Publish a snapshot of the system to the buffer after every update
+	 */
+	public void setSnapshotBuffer(SnapshotBuffer snapshots){
+		this.snapshots = snapshots;
+	}
+
+	public void addListener(Listener l){
+		listeners.add(l);
+	}
+
+	public void removeListener(Listener l){
+		listeners.remove(l);
+	}
+
+	public synchronized void start(){
+		if(running){
+			return;
+		}
+		running = true;
+		steps = 0;
+		startTime = System.nanoTime();
+		endTime = 0;
+		thread = new Thread(this, "SimulationRunner");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop after the current update and wait for the runner thread to finish
+	 */
+	public void stop(){
+		Thread t;
+		synchronized(this){
+			running = false;
+			t = thread;
+		}
+		if(t != null && t != Thread.currentThread()){
+			join(t);
+		}
+	}
+
+	/**
+	 * Wait until the runner is done (maxSteps reached or stopped)
+	 */
+	public void await(){
+		Thread t;
+		synchronized(this){
+			t = thread;
+		}
+		if(t != null){
+			join(t);
+		}
+	}
+
+	private void join(Thread t){
+		try {
+			t.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public boolean isRunning(){
+		return running;
+	}
+
+	public long getSteps(){
+		return steps;
+	}
+
+	/**
+	 * Time in nanoseconds since start(), or the duration of the last run if it is done
+	 */
+	public long getElapsedNanos(){
+		long end = endTime != 0 ? endTime : System.nanoTime();
+		return end - startTime;
+	}
+
+	/**
+	 * Average number of updates per second since start()
+	 */
+	public double getThroughput(){
+		long nanos = getElapsedNanos();
+		return nanos > 0 ? steps * 1e9 / nanos : 0.0;
+	}
+
+	@Override
+	public void run() {
+		long last = System.nanoTime();
+		long nextSnapshot = last;
+		double owed = 0; // Nanoseconds of updates due at the update rate, not done yet
+		boolean published = true;
+		publish();
+		while(running && !done()){
+			int due = 1;
+			double rate = stepsPerSecond;
+			if(rate > 0){
+				double stepNanos = 1e9/rate;
+				long now = System.nanoTime();
+				// Don't owe more than can be caught up before the next snapshot
+				owed = Math.min(owed + (now - last), stepNanos*maxStepsPerSnapshot);
+				last = now;
+				if(owed < stepNanos){
+					// Sleep until the next update is due
+					long wait = (long) (stepNanos - owed);
+					try {
+						Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+					} catch (InterruptedException e) {
+						break;
+					}
+					continue;
+				}
+				due = (int) (owed/stepNanos);
+				owed -= due*stepNanos;
+			}
+			for(int k = 0; k < due && running && !done(); k++){
+				sys.updatePositions();
+				steps++;
+				for(Listener l : listeners){
+					l.updated(sys, steps);
+				}
+			}
+			published = false;
+			double fps = snapshotsPerSecond;
+			long now = System.nanoTime();
+			if(fps <= 0 || now >= nextSnapshot){
+				publish();
+				published = true;
+				if(fps > 0){
+					// Keep in step with the snapshot rate, but skip the snapshots missed under load
+					long period = (long) (1e9/fps);
+					nextSnapshot += period;
+					if(nextSnapshot <= now){
+						nextSnapshot = now + period;
+					}
+				}
+			}
+		}
+		if(!published){
+			publish(); // The final state
+		}
+		endTime = System.nanoTime();
+		running = false;
+	}
+
+	private boolean done(){
+		return maxSteps != 0 && steps >= maxSteps;
+	}
+
+	private void publish(){
+		SnapshotBuffer buffer = snapshots;
+		if(buffer != null){
+			sys.writeSnapshot(buffer.getBack());
+			buffer.publish();
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+package model;
+
+import java.util.ArrayList;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Copy of everything needed to draw the system at one point in time. Written by the simulation thread,
+ * and read by the GUI while the simulation continues. The arrays are reused between updates.
+ */
+public class Snapshot {
+
+	public static final int PLANET = 0;
+	public static final int STAR = 1;
+	public static final int BLACK_HOLE = 2;
+
+	public long frame;           // The update this snapshot was taken after
+
+	// The non gravity bodies
+	public int count;
+	public double[] rx, ry;
+	public int[] type;           // BodyStore.TYPE_ASTEROID or BodyStore.TYPE_COMET
+	public int[] colorIndex;     // index in palette
+	public int[] diameter;
+	public Color[] palette;
+
+	// The gravity bodies
+	public int gravityCount;
+	public double[] grx, gry;
+	public int[] gkind;          // PLANET, STAR or BLACK_HOLE
+	public int[] gdiameter;
+	public Color[] gcolor;
+
+	public ArrayList<Collision> collisions;
+
+	public Snapshot(){
+		rx = new double[0];
+		ry = new double[0];
+		type = new int[0];
+		colorIndex = new int[0];
+		diameter = new int[0];
+		palette = new Color[0];
+		grx = new double[0];
+		gry = new double[0];
+		gkind = new int[0];
+		gdiameter = new int[0];
+		gcolor = new Color[0];
+		collisions = new ArrayList<Collision>();
+	}
+
+	void write(long frame, BodyStore store, ArrayList<Body> gravityBodies, ArrayList<Collision> collisions){
+		this.frame = frame;
+		count = store.size();
+		if(rx.length < count){
+			int n = count + count/4;
+			rx = new double[n];
+			ry = new double[n];
+			type = new int[n];
+			colorIndex = new int[n];
+			diameter = new int[n];
+		}
+		for(int i = 0; i < count; i++){
+			rx[i] = store.rx(i);
+			ry[i] = store.ry(i);
+			type[i] = store.type(i);
+			colorIndex[i] = store.colorIndex(i);
+			diameter[i] = store.diameter(i);
+		}
+		palette = store.getPalette(palette); // Only a new array when the palette has grown
+
+		gravityCount = gravityBodies.size();
+		if(grx.length < gravityCount){
+			grx = new double[gravityCount];
+			gry = new double[gravityCount];
+			gkind = new int[gravityCount];
+			gdiameter = new int[gravityCount];
+			gcolor = new Color[gravityCount];
+		}
+		for(int j = 0; j < gravityCount; j++){
+			Body b = gravityBodies.get(j);
+			grx[j] = b.rx;
+			gry[j] = b.ry;
+			gkind[j] = b instanceof Star ? STAR : b instanceof BlackHole ? BLACK_HOLE : PLANET;
+			gdiameter[j] = b.diameter;
+			gcolor[j] = b.color;
+		}
+
+		this.collisions = collisions;
+	}
+
+}
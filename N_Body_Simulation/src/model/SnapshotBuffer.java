@@ -0,0 +1,50 @@
+package model;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free triple buffer of snapshots between one producer (the simulation thread) and one
+ * consumer (the GUI). The producer always has a buffer to write to and the consumer always gets
+ * the latest complete snapshot, so neither of them ever waits for the other.
+ */
+public class SnapshotBuffer {
+
+	private static final int FRESH = 4; // The middle buffer holds a snapshot the consumer has not seen
+
+	private final Snapshot[] buffers;
+	private final AtomicInteger middle; // Index of the buffer being handed over, plus the FRESH bit
+	private int back;                   // Owned by the producer
+	private int front;                  // Owned by the consumer
+
+	public SnapshotBuffer(){
+		buffers = new Snapshot[]{new Snapshot(), new Snapshot(), new Snapshot()};
+		back = 0;
+		middle = new AtomicInteger(1);
+		front = 2;
+	}
+
+	/**
+	 * The buffer the producer may write the next snapshot to
+	 */
+	public Snapshot getBack(){
+		return buffers[back];
+	}
+
+	/**
+	 * Hand the buffer just written over to the consumer
+	 */
+	public void publish(){
+		back = middle.getAndSet(back | FRESH) & 3;
+	}
+
+	/**
+	 * The latest published snapshot. It stays valid until the next call to latest()
+	 */
+	public Snapshot latest(){
+		if((middle.get() & FRESH) != 0){
+			front = middle.getAndSet(front) & 3;
+		}
+		return buffers[front];
+	}
+
+}
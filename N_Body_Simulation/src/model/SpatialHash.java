@@ -0,0 +1,151 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Broad phase for collisions between the bodies in the store. The bodies are sorted into a uniform grid with
+ * cells as large as the collision distance, so each body is only tested against the bodies in its own and the
+ * 8 neighbouring cells. The cells are hashed into a table of at least twice the number of bodies, so the grid
+ * can cover any area, and the bodies are stored in the order of the table. The table is rebuilt on every update.
+ */
+public class SpatialHash implements StepExecutor.RangeTask {
+
+	private final CollisionBuffer events;
+	private BodyStore store;
+	private double inverseCell;       // 1 / cell size
+	private double distance2;
+	private int mask;
+	private int[] start = new int[1]; // Bucket b holds the bodies sorted[start[b]] .. sorted[start[b+1]-1]
+	private int[] fill = new int[0];  // Next free place of each bucket while sorting
+	private int[] bucket = new int[0];
+	private int[] sorted = new int[0];
+	private double[] sx = new double[0], sy = new double[0]; // Positions in sorted order, so a bucket is read in one go
+	private int count;                // Number of bodies in the table
+
+	public SpatialHash(int slots){
+		this.events = new CollisionBuffer(slots);
+	}
+
+	/**
+	 * Merge every pair of bodies in the store closer than the given distance. The pairs are found in parallel,
+	 * then merged in the order of the bodies in the store: the body with the lower index absorbs the other.
+	 * @return the number of bodies marked as removed
+	 */
+	public int merge(BodyStore store, StepExecutor executor, double distance){
+		this.store = store;
+		this.inverseCell = 1.0/distance;
+		this.distance2 = distance*distance;
+		build();
+		events.clear();
+		executor.invoke(count, this);
+
+		int merged = 0;
+		int pairs = events.sort();
+		for(int k = 0; k < pairs; k++){
+			int i = events.first(k);
+			int j = events.second(k);
+			// A body that has already been absorbed doesn't collide anymore
+			if(store.isRemoved(i) || store.isRemoved(j)){
+				continue;
+			}
+			store.merge(i, j);
+			merged++;
+		}
+		events.clear();
+		return merged;
+	}
+
+	// Sort the bodies by bucket with a counting sort
+	private void build(){
+		int n = store.size();
+		int buckets = 1;
+		while(buckets < 2*n){
+			buckets <<= 1;
+		}
+		mask = buckets - 1;
+		if(start.length < buckets + 1){
+			start = new int[buckets + 1];
+			fill = new int[buckets];
+		} else {
+			Arrays.fill(start, 0, buckets + 1, 0);
+		}
+		if(bucket.length < n){
+			bucket = new int[n];
+			sorted = new int[n];
+			sx = new double[n];
+			sy = new double[n];
+		}
+
+		for(int i = 0; i < n; i++){
+			if(store.isRemoved(i)){
+				bucket[i] = -1;
+				continue;
+			}
+			int b = hash(cell(store.rx(i)), cell(store.ry(i)));
+			bucket[i] = b;
+			start[b+1]++;
+		}
+		for(int b = 0; b < buckets; b++){
+			start[b+1] += start[b];
+			fill[b] = start[b];
+		}
+		for(int i = 0; i < n; i++){
+			int b = bucket[i];
+			if(b >= 0){
+				int k = fill[b]++;
+				sorted[k] = i;
+				sx[k] = store.rx(i);
+				sy[k] = store.ry(i);
+			}
+		}
+		count = start[buckets];
+	}
+
+	// Test the bodies sorted[from] .. sorted[to-1] against the bodies in their own and the neighbouring cells
+	@Override
+	public void run(int from, int to, int worker) {
+		for(int k = from; k < to; k++){
+			double x = sx[k];
+			double y = sy[k];
+			long cx = cell(x);
+			long cy = cell(y);
+			for(long gy = cy - 1; gy <= cy + 1; gy++){
+				// The 3 cells of a row are in consecutive buckets, unless they wrap around the end of the table
+				int b = hash(cx - 1, gy);
+				if(b + 2 <= mask){
+					scan(k, x, y, start[b], start[b+3], worker);
+				} else {
+					for(long gx = cx - 1; gx <= cx + 1; gx++){
+						b = hash(gx, gy);
+						scan(k, x, y, start[b], start[b+1], worker);
+					}
+				}
+			}
+		}
+	}
+
+	// Test body k of the table against the bodies from .. end-1 of the table. Each pair is found from the body
+	// that comes first in the table. Bodies of other cells in the same buckets are rejected by the distance,
+	// pairs found twice are dropped by the sort.
+	private void scan(int k, double x, double y, int from, int end, int worker){
+		for(int l = Math.max(from, k + 1); l < end; l++){
+			double dx = sx[l] - x;
+			double dy = sy[l] - y;
+			if(dx*dx + dy*dy < distance2){
+				int i = sorted[k], j = sorted[l];
+				events.add(worker, Math.min(i, j), Math.max(i, j));
+			}
+		}
+	}
+
+	private long cell(double x){
+		return (long) Math.floor(x*inverseCell);
+	}
+
+	// Neighbouring cells of a row go to neighbouring buckets, the rows are spread over the table
+	private int hash(long cx, long cy){
+		long h = cy*0x9E3779B97F4A7C15L;
+		return (int) ((h ^ (h >>> 32)) + cx) & mask;
+	}
+
+}
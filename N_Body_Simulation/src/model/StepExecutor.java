@@ -0,0 +1,218 @@
+package model;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of long-lived worker threads that is reused for every update of the system.
+ * The workers sleep between the frames instead of being created and joined again.
+ *
+ * The range is split in many small chunks that the workers claim one at a time, so a worker that is
+ * done early takes over work from the others instead of waiting. The thread waiting in await() also
+ * claims chunks until there are none left.
+ */
+public class StepExecutor {
+
+	private static final int MIN_CHUNK = 1024;      // Smallest number of bodies claimed at a time
+	private static final int CHUNKS_PER_THREAD = 8; // Enough chunks to even out uneven work
+
+	/**
+	 * Work done by a single worker on a chunk of the range [from, to). Called many times per step.
+	 * The worker index is below getSlotCount(), and no two chunks with the same index run at the same time.
+	 */
+	public interface RangeTask {
+		void run(int from, int to, int worker);
+	}
+
+	private final Thread[] threads;
+	private final int threadCount;
+
+	private RangeTask task;  // The task of the current step
+	private int size;        // The size of the range in the current step
+	private int chunk;       // Chunk size of the current step
+	private final AtomicInteger nextChunk = new AtomicInteger(); // Start of the next unclaimed chunk
+	private long generation; // Incremented every time a new step is submitted
+	private int pending;     // Number of workers not yet done with the current step
+	private RuntimeException failure;
+	private boolean running;
+	private long waitNanos;  // Time the callers of await() waited for the workers, see takeWaitNanos()
+
+	public StepExecutor(int threadCount){
+		if(threadCount < 1){
+			threadCount = 1;
+		}
+		this.threadCount = threadCount;
+		this.threads = new Thread[threadCount];
+		this.running = true;
+		for(int i = 0; i < threadCount; i++){
+			final int worker = i;
+			threads[i] = new Thread(new Runnable(){
+				@Override
+				public void run() {
+					work(worker);
+				}
+			}, "BodySystem-worker-" + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+	}
+
+	public int getThreadCount(){
+		return threadCount;
+	}
+
+	/**
+	 * Number of distinct worker indices passed to the tasks: one per thread plus one for the caller of await()
+	 */
+	public int getSlotCount(){
+		return threadCount + 1;
+	}
+
+	/**
+	 * Start the task on all workers and return at once. Call await() before the next submit.
+	 */
+	public void submit(int size, RangeTask task){
+		submit(size, MIN_CHUNK, task);
+	}
+
+	/**
+	 * Like submit(size, task), for tasks where a few items of the range are already a lot of work
+	 * @param minChunk smallest number of items claimed at a time
+	 */
+	public synchronized void submit(int size, int minChunk, RangeTask task){
+		if(!running){
+			throw new IllegalStateException("StepExecutor has been shut down");
+		}
+		this.task = task;
+		this.size = size;
+		this.chunk = Math.max(Math.max(1, minChunk), (size + threadCount*CHUNKS_PER_THREAD - 1)/(threadCount*CHUNKS_PER_THREAD));
+		this.nextChunk.set(0);
+		this.pending = threadCount;
+		this.failure = null;
+		this.generation++;
+		notifyAll();
+	}
+
+	/**
+	 * Help with the remaining chunks, then wait until every worker is done with the submitted task
+	 */
+	public void await(){
+		RangeTask t;
+		int n, c;
+		synchronized(this){
+			t = task;
+			n = size;
+			c = chunk;
+		}
+		RuntimeException error = null;
+		try {
+			runChunks(t, n, c, threadCount);
+		} catch (RuntimeException e) {
+			error = e;
+		}
+		waitForWorkers(error);
+	}
+
+	private synchronized void waitForWorkers(RuntimeException error){
+		if(error != null && failure == null){
+			failure = error;
+		}
+		boolean interrupted = false;
+		long start = System.nanoTime();
+		while(pending > 0){
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		waitNanos += System.nanoTime() - start;
+		if(interrupted){
+			Thread.currentThread().interrupt();
+		}
+		if(failure != null){
+			throw failure;
+		}
+	}
+
+	/**
+	 * The time the callers of await() spent waiting for the workers after the last chunk was claimed,
+	 * since the previous call
+	 */
+	public synchronized long takeWaitNanos(){
+		long w = waitNanos;
+		waitNanos = 0;
+		return w;
+	}
+
+	/**
+	 * Run the task on all workers and wait for it to finish
+	 */
+	public void invoke(int size, RangeTask task){
+		submit(size, task);
+		await();
+	}
+
+	/**
+	 * Run the task on all workers with the given smallest chunk, and wait for it to finish
+	 */
+	public void invoke(int size, int minChunk, RangeTask task){
+		submit(size, minChunk, task);
+		await();
+	}
+
+	public synchronized void shutdown(){
+		running = false;
+		notifyAll();
+	}
+
+	private void work(int worker){
+		long seen = 0;
+		while(true){
+			RangeTask t;
+			int n, c;
+			synchronized(this){
+				while(running && generation == seen){
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// Only shutdown() stops the workers
+					}
+				}
+				if(!running){
+					return;
+				}
+				seen = generation;
+				t = task;
+				n = size;
+				c = chunk;
+			}
+			RuntimeException error = null;
+			try {
+				runChunks(t, n, c, worker);
+			} catch (RuntimeException e) {
+				error = e;
+			}
+			synchronized(this){
+				if(error != null && failure == null){
+					failure = error;
+				}
+				pending--;
+				if(pending == 0){
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	// Claim and run chunks until the whole range has been handed out
+	private void runChunks(RangeTask t, int n, int c, int worker){
+		while(true){
+			int from = nextChunk.getAndAdd(c);
+			if(from >= n || from < 0){
+				return;
+			}
+			t.run(from, Math.min(n, from + c), worker);
+		}
+	}
+
+}
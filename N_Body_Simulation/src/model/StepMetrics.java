@@ -0,0 +1,115 @@
+package model;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * How long each phase of the updates of a BodySystem takes, one LatencyHistogram per phase.
+ *
+ * The system adds up the time of every phase during an update, since a phase may run several times in one
+ * (e.g. once per stage of the integrator), and records the sums when the update is done. With a gravity engine
+ * the gravity bodies are updated on the calling thread while the workers run, so GRAVITY_BODIES overlaps WORKERS.
+ * RENDER is recorded by the GUI for every frame drawn.
+ */
+public class StepMetrics {
+
+	public enum Phase {
+		UPDATE,         // The whole of updatePositions()
+		GRAVITY_BODIES, // Forces and steps of the gravity bodies on the calling thread
+		ENGINE,         // Preparing the gravity engine, e.g. building the tree
+		WORKERS,        // The workers updating the non gravity bodies (asteroids and comets)
+		JOIN_WAIT,      // Part of WORKERS the calling thread waited for the last worker
+		COLLISIONS,     // Applying the collisions, merging bodies and compacting the store
+		RENDER          // Drawing a frame
+	}
+
+	private static final Phase[] PHASES = Phase.values();
+
+	private final LatencyHistogram[] histograms = new LatencyHistogram[PHASES.length];
+	private final long[] sums = new long[PHASES.length]; // Time of each phase in the current update
+	private final boolean[] ran = new boolean[PHASES.length];
+
+	public StepMetrics(){
+		for(int p = 0; p < PHASES.length; p++){
+			histograms[p] = new LatencyHistogram();
+		}
+	}
+
+	public LatencyHistogram get(Phase phase){
+		return histograms[phase.ordinal()];
+	}
+
+	/**
+	 * Record a single duration of the phase
+	 */
+	public void record(Phase phase, long nanos){
+		histograms[phase.ordinal()].record(nanos);
+	}
+
+	// Start adding up the phases of an update
+	void begin(){
+		for(int p = 0; p < PHASES.length; p++){
+			sums[p] = 0;
+			ran[p] = false;
+		}
+	}
+
+	// Add time to a phase of the current update
+	void add(Phase phase, long nanos){
+		sums[phase.ordinal()] += nanos;
+		ran[phase.ordinal()] = true;
+	}
+
+	// Record the phases that ran in the current update
+	void end(){
+		for(int p = 0; p < PHASES.length; p++){
+			if(ran[p]){
+				histograms[p].record(sums[p]);
+			}
+		}
+	}
+
+	public void reset(){
+		for(LatencyHistogram h : histograms){
+			h.reset();
+		}
+	}
+
+	/**
+	 * Make the histograms visible in JMX as nbody:type=StepMetrics,phase=<phase>, replacing the ones registered before
+	 */
+	public void register(){
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			for(Phase phase : PHASES){
+				ObjectName name = new ObjectName("nbody:type=StepMetrics,phase=" + phase.name().toLowerCase());
+				if(server.isRegistered(name)){
+					server.unregisterMBean(name);
+				}
+				server.registerMBean(get(phase), name);
+			}
+		} catch (JMException e) {
+			System.err.println("Could not register the step metrics: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * One line per phase that ran: count, p50, p99 and max
+	 */
+	public String summary(){
+		StringBuilder s = new StringBuilder();
+		for(Phase phase : PHASES){
+			LatencyHistogram h = get(phase);
+			if(h.getCount() == 0){
+				continue;
+			}
+			s.append(String.format("%-14s %8d  p50 %9.3f ms  p99 %9.3f ms  max %9.3f ms%n", phase.name().toLowerCase(),
+					h.getCount(), h.getP50Micros()/1e3, h.getP99Micros()/1e3, h.getMaxMicros()/1e3));
+		}
+		return s.toString();
+	}
+
+}
@@ -0,0 +1,227 @@
+package model;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Records the positions of a subset of the non gravity bodies every few updates into an append-only,
+ * memory mapped file. Listens to a SimulationRunner: the positions are copied into one of a few reused
+ * frames on the runner thread, and written to the file by a thread of its own. If the writer falls behind,
+ * samples are dropped instead of holding up the simulation.
+ *
+ * File layout: a header of HEADER_SIZE bytes (magic, version, the offset of the end of the last complete
+ * record, every, stride, fromId, toId), then a record per sample: the update number (long), the number of
+ * bodies n (int), then the columns ids (n ints), rx (n doubles) and ry (n doubles). Bodies are identified by
+ * BodyStore.id(), so a body can be followed while others are removed.
+ */
+public class TrajectoryRecorder implements SimulationRunner.Listener {
+
+	public static final int MAGIC = 0x4E425452; // "NBTR"
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 32;
+	private static final int END_OFFSET = 8;           // Position of the end of the data in the header
+	private static final long SEGMENT_SIZE = 64 << 20; // Size of the part of the file mapped at a time
+	private static final int FRAMES = 3;               // Samples that can wait for the writer
+
+	// A sample of the positions, reused
+	private static class Frame {
+		long step;
+		int count;
+		int[] ids = new int[0];
+		double[] rx = new double[0], ry = new double[0];
+
+		void ensure(int n){
+			if(ids.length < n){
+				ids = new int[n];
+				rx = new double[n];
+				ry = new double[n];
+			}
+		}
+	}
+
+	private static final Frame STOP = new Frame(); // Tells the writer to finish
+
+	private final int every, stride, fromId, toId;
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+	private MappedByteBuffer segment; // The mapped part of the file the next record goes to
+	private long segmentStart;
+	private long end;                 // Offset of the end of the last complete record
+
+	private final ArrayBlockingQueue<Frame> free = new ArrayBlockingQueue<Frame>(FRAMES);
+	private final ArrayBlockingQueue<Frame> full = new ArrayBlockingQueue<Frame>(FRAMES + 1);
+	private final Thread writer;
+	private volatile IOException failure;
+	private volatile long recorded, dropped;
+
+	/**
+	 * Record every body
+	 */
+	public TrajectoryRecorder(Path path, int every) throws IOException {
+		this(path, every, 1, 0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param every record after every n-th update
+	 * @param stride record every n-th body by id
+	 * @param fromId first id to record
+	 * @param toId record the ids below this one
+	 */
+	public TrajectoryRecorder(Path path, int every, int stride, int fromId, int toId) throws IOException {
+		this.every = Math.max(1, every);
+		this.stride = Math.max(1, stride);
+		this.fromId = Math.max(0, fromId);
+		this.toId = toId;
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).putLong(HEADER_SIZE).putInt(this.every).putInt(this.stride)
+			.putInt(this.fromId).putInt(this.toId);
+		end = HEADER_SIZE;
+		segmentStart = HEADER_SIZE;
+		segment = channel.map(FileChannel.MapMode.READ_WRITE, segmentStart, SEGMENT_SIZE);
+
+		for(int k = 0; k < FRAMES; k++){
+			free.add(new Frame());
+		}
+		writer = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				write();
+			}
+		}, "TrajectoryRecorder");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@Override
+	public void updated(BodySystem sys, long step) {
+		if(step % every != 0 || failure != null){
+			return;
+		}
+		Frame f = free.poll();
+		if(f == null){
+			dropped++;
+			return;
+		}
+		synchronized(sys){
+			sample(sys.getStore(), f);
+		}
+		f.step = step;
+		full.add(f);
+	}
+
+	// Copy the positions of the selected bodies. The ids increase with the index, so the range is found directly.
+	private void sample(BodyStore store, Frame f){
+		int from = store.indexOf(fromId);
+		int to = toId == Integer.MAX_VALUE ? store.size() : store.indexOf(toId);
+		f.ensure(to - from);
+		int n = 0;
+		for(int i = from; i < to; i++){
+			int id = store.id(i);
+			if(stride == 1 || (id - fromId) % stride == 0){
+				f.ids[n] = id;
+				f.rx[n] = store.rx(i);
+				f.ry[n] = store.ry(i);
+				n++;
+			}
+		}
+		f.count = n;
+	}
+
+	private void write(){
+		while(true){
+			Frame f;
+			try {
+				f = full.take();
+			} catch (InterruptedException e) {
+				continue; // Only close() stops the writer
+			}
+			if(f == STOP){
+				return;
+			}
+			try {
+				append(f);
+				recorded++;
+			} catch (IOException e) {
+				failure = e;
+			}
+			free.add(f);
+		}
+	}
+
+	private void append(Frame f) throws IOException {
+		int n = f.count;
+		long size = 12 + 20L*n;
+		if(segment.remaining() < size){
+			segmentStart = end;
+			segment = channel.map(FileChannel.MapMode.READ_WRITE, segmentStart, Math.max(SEGMENT_SIZE, size));
+		}
+		segment.putLong(f.step).putInt(n);
+		segment.asIntBuffer().put(f.ids, 0, n);
+		segment.position(segment.position() + 4*n);
+		segment.asDoubleBuffer().put(f.rx, 0, n);
+		segment.position(segment.position() + 8*n);
+		segment.asDoubleBuffer().put(f.ry, 0, n);
+		segment.position(segment.position() + 8*n);
+		end = segmentStart + segment.position();
+		// The record only counts once the header points past it
+		header.putLong(END_OFFSET, end);
+	}
+
+	/**
+	 * Number of samples written to the file
+	 */
+	public long getRecorded(){
+		return recorded;
+	}
+
+	/**
+	 * Number of samples skipped because the writer was still busy with the previous ones
+	 */
+	public long getDropped(){
+		return dropped;
+	}
+
+	/**
+	 * Write the waiting samples, flush the file and cut it to the recorded length. Stop the runner first.
+	 */
+	public void close() throws IOException {
+		boolean interrupted = false;
+		boolean stopping = false;
+		while(!stopping){
+			try {
+				full.put(STOP);
+				stopping = true;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		while(writer.isAlive()){
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted){
+			Thread.currentThread().interrupt();
+		}
+		segment.force();
+		header.force();
+		try {
+			channel.truncate(end);
+		} catch (IOException e) {
+			// Some systems can't shrink a mapped file. The header still tells where the data ends.
+		}
+		channel.close();
+		if(failure != null){
+			throw failure;
+		}
+	}
+
+}
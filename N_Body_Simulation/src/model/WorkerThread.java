@@ -1,61 +1,261 @@
 package model;
 
-import java.util.ArrayList;
+/**
+ * The work done on each worker thread of the StepExecutor: updates its chunks of the non gravity bodies
+ */
+public class WorkerThread implements StepExecutor.RangeTask{
 
-public class WorkerThread implements Runnable{
+	private static final double EPS2 = 3E4*3E4; // softening parameter squared (just to avoid infinities)
+	private static final double COLLISION_DISTANCE = 7e15; // Bodies closer than this are visually collided
 
-	private int frame;
-	private double deltaTime;
-	private ArrayList<Body> bodies, gravityBodies;
-	private ArrayList<Collision> collisions;
+	public enum Phase {
+		STEP,   // Advance massless bodies a whole update, with their own substeps, through the interpolated field
+		DRIFT,  // Move the bodies with their current velocity
+		KICK    // Evaluate the forces at the current positions and change the velocities
+	}
+
+	private Phase phase;
+	private double deltaTime;   // Length of the whole update (STEP) or of the drift/kick
+	private Integrator integrator;
+	private int maxLevel;       // Bodies may split an update in up to 2^maxLevel substeps
+	private double eta2;        // Squared fraction of the dynamical time scale allowed as substep
+	private BodyStore store;
+	private GravityField field;
+	private GravityEngine engine; // Mutual gravity between the bodies in the store, null for massless bodies
 	private boolean enableCollisions;
+	private CollisionBuffer events; // Collisions with gravity bodies found by the workers, not yet applied
+	private int removed;        // Number of bodies marked as removed since the last resetRemoved()
+	private int slots;
+	private BlockKernel[] blocks; // Per worker block of bodies advanced together, null for the scalar kernel only
+
+	public WorkerThread(BodyStore store, GravityField field, int slots){
+		this.store = store;
+		this.field = field;
+		this.slots = slots;
+		this.events = new CollisionBuffer(slots);
+	}
+
+	/**
+	 * Advance bodies without substeps in blocks the JIT compiler can vectorize, instead of one at a time
+	 */
+	public void setVectorized(boolean vectorized){
+		if(!vectorized){
+			blocks = null;
+		} else if(blocks == null){
+			blocks = new BlockKernel[slots];
+			for(int i = 0; i < blocks.length; i++){
+				blocks[i] = new BlockKernel();
+			}
+		}
+	}
+
+	public boolean isVectorized(){
+		return blocks != null;
+	}
 
-	public WorkerThread(ArrayList<Body> bodies, ArrayList<Body> gravityBodies, double dt, int frame, int i, BodySystem sys, boolean enableCollisions){
-		this.bodies = bodies;
-		this.gravityBodies = gravityBodies;
+	/**
+	 * Set up a STEP run: the field must hold the interpolated positions for the levels 0..maxLevel
+	 */
+	public void prepareStep(double dt, Integrator integrator, int maxLevel, double eta, boolean enableCollisions){
+		this.phase = Phase.STEP;
 		this.deltaTime = dt;
-		this.frame = frame;
+		this.integrator = integrator;
+		this.maxLevel = maxLevel;
+		this.eta2 = eta*eta;
+		this.engine = null;
+		this.enableCollisions = enableCollisions;
+	}
+
+	public void prepareDrift(double dt){
+		this.phase = Phase.DRIFT;
+		this.deltaTime = dt;
+	}
+
+	/**
+	 * Set up a KICK run: the field must hold the current positions as its only point
+	 */
+	public void prepareKick(double dt, GravityEngine engine, boolean enableCollisions){
+		this.phase = Phase.KICK;
+		this.deltaTime = dt;
+		this.engine = engine;
 		this.enableCollisions = enableCollisions;
-		collisions = sys.getCollisionsList(i);
 	}
 
 	@Override
-	public void run() {
-		for (int i = 0; i < bodies.size(); i++) {
-			bodies.get(i).resetForce();					
-			for (int j = 0; j < gravityBodies.size(); j++) {
-				bodies.get(i).addForce(gravityBodies.get(j));
-				// If two bodies collide then we merge them and keep the combined mass in a single item
-				if(collided(bodies.get(i), gravityBodies.get(j))){ 
-					gravityBodies.get(j).addBodyMass(bodies.get(i));
-//					collisions.add(new Collision(bodies.get(i), frame));
-					bodies.remove(i);
-					i--;	
-					if(i < 0){
-						i=0;
-					}
+	public void run(int from, int to, int worker) {
+		switch(phase){
+		case STEP:
+			step(from, to, worker);
+			break;
+		case DRIFT:
+			for (int i = from; i < to; i++) {
+				if(!store.isRemoved(i)){
+					store.drift(i, deltaTime);
 				}
 			}
-//			bodies.get(i).update(deltaTime); // No improvement in performance found
+			break;
+		case KICK:
+			kick(from, to, worker);
+			break;
 		}
+	}
 
-		//Then, loop again and update the bodies using timestep dt
-		for (Body b : bodies) { 
-			b.update(deltaTime);
+	private void step(int from, int to, int worker){
+		double collision2 = collisionDistance2();
+		if(blocks != null){
+			stepBlocks(from, to, worker, collision2);
+			return;
 		}
+		for (int i = from; i < to; i++) {
+			if(!store.isRemoved(i)){
+				step(i, level(store.rx(i), store.ry(i)), collision2, worker);
+			}
+		}
+	}
 
+	// Advance the bodies in runs of a block, the ones that need substeps one at a time after their run
+	private void stepBlocks(int from, int to, int worker, double collision2){
+		BlockKernel block = blocks[worker];
+		for (int i = from; i < to; ) {
+			int end = Math.min(to, Math.min(i + BlockKernel.SIZE, (i/BodyStore.CHUNK + 1)*BodyStore.CHUNK));
+			block.load(store, i, end);
+			for(int k = 0; k < block.size(); k++){
+				int level = level(block.x(k), block.y(k));
+				if(level > 0 && !store.isRemoved(i + k)){
+					block.skip(k, level);
+				}
+			}
+			block.advance(store, field, integrator, deltaTime, collision2, events, worker);
+			for(int k = 0; k < block.size(); k++){
+				if(block.level(k) > 0){
+					step(i + k, block.level(k), collision2, worker);
+				}
+			}
+			i = end;
+		}
 	}
 
-	// Check if two bodies are visually collided
-	private boolean collided(Body a, Body b){
-		if(!enableCollisions){
-			return false;
+	// Close to a gravity body the update is split in 2^level substeps
+	private int level(double x, double y){
+		int level = 0;
+		if(maxLevel > 0){
+			double dt2 = deltaTime*deltaTime;
+			double limit = eta2*field.dynamicalTime2(x, y);
+			while(level < maxLevel && dt2 > limit*(1L << (2*level))){
+				level++;
+			}
 		}
-		double dist = Math.abs(Math.sqrt(Math.pow((b.rx-a.rx), 2)+Math.pow(b.ry-a.ry, 2)));
-		if(dist < 7e15){
-			return true;
+		return level;
+	}
+
+	// Advance body i one update in 2^level substeps
+	private void step(int i, int level, double collision2, int worker){
+		double[] drifts = integrator.getDrifts();
+		double[] kicks = integrator.getKicks();
+		int stages = kicks.length;
+		double[] gm = field.gm, gx = field.rx, gy = field.ry;
+		int count = field.count;
+
+		double rx = store.rx(i);
+		double ry = store.ry(i);
+		double vx = store.vx(i);
+		double vy = store.vy(i);
+		double mass = store.mass(i);
+		int substeps = 1 << level;
+		double h = deltaTime/substeps;
+
+		double ax = 0.0, ay = 0.0;
+		for(int m = 0; m < substeps; m++){
+			for(int s = 0; s < stages; s++){
+				rx += drifts[s]*h*vx;
+				ry += drifts[s]*h*vy;
+				ax = 0.0;
+				ay = 0.0;
+				int base = field.point(level, m, s)*count;
+				for (int j = 0; j < count; j++) {
+					double dx = gx[base+j] - rx;
+					double dy = gy[base+j] - ry;
+					double dist2 = dx*dx + dy*dy;
+					double a = gm[j] / ((dist2 + EPS2) * Math.sqrt(dist2));
+					ax += a * dx;
+					ay += a * dy;
+					// If two bodies collide then we merge them and keep the combined mass in a single item
+					if(dist2 < collision2){
+						events.add(worker, i, j);
+						store.markRemoved(i);
+						return;
+					}
+				}
+				vx += kicks[s]*h*ax;
+				vy += kicks[s]*h*ay;
+			}
+			rx += drifts[stages]*h*vx;
+			ry += drifts[stages]*h*vy;
+		}
+		store.setPosition(i, rx, ry);
+		store.setVelocity(i, vx, vy);
+		store.setForce(i, mass*ax, mass*ay);
+	}
+
+	private void kick(int from, int to, int worker){
+		double collision2 = collisionDistance2();
+		double[] gm = field.gm, gx = field.rx, gy = field.ry;
+		int count = field.count;
+		for (int i = from; i < to; i++) {
+			if(store.isRemoved(i)){
+				continue;
+			}
+			double rx = store.rx(i);
+			double ry = store.ry(i);
+			double mass = store.mass(i);
+			double ax = 0.0, ay = 0.0;
+			for (int j = 0; j < count; j++) {
+				double dx = gx[j] - rx;
+				double dy = gy[j] - ry;
+				double dist2 = dx*dx + dy*dy;
+				double a = gm[j] / ((dist2 + EPS2) * Math.sqrt(dist2));
+				ax += a * dx;
+				ay += a * dy;
+				// If two bodies collide then we merge them and keep the combined mass in a single item
+				if(dist2 < collision2){
+					events.add(worker, i, j);
+					store.markRemoved(i);
+					break;
+				}
+			}
+			if(store.isRemoved(i)){
+				continue;
+			}
+			store.setForce(i, mass*ax, mass*ay);
+			if(engine != null){
+				engine.addForce(store, i);
+			}
+			store.kick(i, deltaTime);
 		}
-		return false;
+	}
+
+	/**
+	 * Merge the bodies that collided in the last run into their gravity bodies. Call after the run is done,
+	 * while the field still refers to the same gravity bodies.
+	 */
+	public void applyCollisions(){
+		removed += events.apply(store, field);
+	}
+
+	// Number of bodies marked as removed since the last resetRemoved()
+	public int getRemoved(){
+		return removed;
+	}
+
+	public void resetRemoved(){
+		removed = 0;
+		events.clear();
+	}
+
+	// Squared distance below which two bodies are visually collided. -1 never matches, so the kernels
+	// don't have to check enableCollisions for every pair
+	private double collisionDistance2(){
+		return enableCollisions ? COLLISION_DISTANCE*COLLISION_DISTANCE : -1.0;
 	}
 
 }
@@ -0,0 +1,25 @@
+package model;
+
+/**
+ * Fourth order Yoshida integrator: three leapfrog steps of weights w1, w0, w1.
+ * Three force evaluations per step, but allows much larger steps for the same accuracy.
+ */
+public class YoshidaIntegrator implements Integrator {
+
+	private static final double W1 = 1.0/(2.0 - Math.cbrt(2.0));
+	private static final double W0 = -Math.cbrt(2.0)/(2.0 - Math.cbrt(2.0));
+
+	private static final double[] DRIFTS = {W1/2, (W0+W1)/2, (W0+W1)/2, W1/2};
+	private static final double[] KICKS = {W1, W0, W1};
+
+	@Override
+	public double[] getDrifts() {
+		return DRIFTS;
+	}
+
+	@Override
+	public double[] getKicks() {
+		return KICKS;
+	}
+
+}